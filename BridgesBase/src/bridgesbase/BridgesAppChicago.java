@@ -7,7 +7,6 @@ import bridges.base.Circle;
 import bridges.base.Polyline;
 import bridges.base.SymbolCollection;
 import bridges.connect.Bridges;
-import bridges.connect.DataSource;
 import bridges.data_src_dependent.City;
 import bridges.data_src_dependent.OsmData;
 import bridges.data_src_dependent.OsmVertex;
@@ -15,9 +14,13 @@ import edu.sxu.cs.geometry.Point;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class BridgesAppChicago 
 {
+    //OSM regions drawn together; the viewport below covers all of them
+    static final String[] LOCATIONS = {"Chicago, Illinois", "Evanston, Illinois", "Oak Park, Illinois"};
+    
     /**
      * Runs all the logic for the BRIDGES assignment. Call from main.
      * @param bridges The initialized Bridges object
@@ -25,29 +28,68 @@ public class BridgesAppChicago
      *   with the BRIDGES server.
      */
     public void run(Bridges bridges) throws java.io.IOException
+    {
+        //Download through the BRIDGES server, one data connection per request
+        run(bridges, DatasetSource.of(bridges));
+    }
+    
+    /**
+     * Runs the assignment with the data sets from source, such as a FakeDataSource.
+     * @param bridges The initialized Bridges object
+     * @param source Where to download the data sets from
+     * @throws java.io.IOException when a download fails
+     */
+    public void run(Bridges bridges, DatasetSource source) throws java.io.IOException
     {
         //Set some information for the BRIDGES object
         bridges.setTitle("Title of the project");
 	bridges.setDescription("Long description");
 
-        //Create the data connection object
-        DataSource ds = bridges.getDataSource();
-        
-         //Use the DataSource object to download a data set from the server
-        OsmData osm_data = ds.getOsmData("Chicago, Illinois", "secondary");
-        OsmVertex[] ov = osm_data.getVertices();
-        
-        //Read the data set into a data structure
-        ArrayList<Point> dataPoints = new ArrayList<>();
-        for (OsmVertex v : ov)
-            dataPoints.add(new Point(v.getLongitude(), v.getLatitude()));
+        //Each step starts as soon as the data it needs is in, and the
+        //  pipeline prints how long each one took at the end
+        StartupPipeline pipeline = new StartupPipeline();
+        ArrayList<Point> dataPoints;
+        int downloaded = 0;
+        try (pipeline)
+        {
+            //Download the regions from the server, all at once, and read each one
+            //  into the shared pool as soon as it arrives. Neighbouring regions
+            //  overlap at their edges, and the pool keeps one vertex per location.
+            VertexPool pool = new VertexPool();
+            List<CompletableFuture<Integer>> parsed = new ArrayList<>();
+            for (String location : LOCATIONS)
+            {
+                CompletableFuture<OsmData> osm_data = pipeline.fetch("fetch " + location, () -> source.getOsmData(location, "secondary"));
+                parsed.add(pipeline.then("read " + location, osm_data, data -> {
+                    for (OsmVertex v : data.getVertices())
+                        pool.intern(v.getLatitude(), v.getLongitude(), location);
+                    return data.getVertices().length;
+                }));
+            }
+            for (CompletableFuture<Integer> f : parsed)
+                downloaded += StartupPipeline.await(f);
+            
+            //Read the data set into a data structure
+            dataPoints = pipeline.run("convert to points", () -> {
+                ArrayList<Point> result = new ArrayList<>();
+                for (ExtendedOsmVertex v : pool.vertices())
+                    result.add(new Point(v.getLongitude(), v.getLatitude()));
+                return result;
+            });
+        }
         
         //Process the data
-         System.out.println(dataPoints.size()+" data points.");
+         System.out.println(dataPoints.size()+" data points ("+downloaded+" downloaded).");
         
         //Create a scene graph (SymbolCollection) object
-        SymbolCollection scene = new SymbolCollection();
+        SymbolCollection scene = pipeline.run("build symbols", () -> buildScene(dataPoints));
         bridges.setDataStructure(scene);
+        System.out.print(pipeline.report());
+    }
+    
+    private static SymbolCollection buildScene(List<Point> dataPoints)
+    {
+        SymbolCollection scene = new SymbolCollection();
         
         //Set the window (the visible range of X and Y)
         //  These numbers need to be set to something that works for the data set.
@@ -72,6 +114,7 @@ boundingBox.addPoint(-87.55f, 41.77f);  // Bottom-right
 boundingBox.addPoint(-87.85f, 41.77f);  // Bottom-left
 boundingBox.addPoint(-87.85f, 42.03f);  // Closing the shape
         scene.addSymbol(boundingBox);
+        return scene;
     }
 
 }
@@ -7,15 +7,22 @@ import bridges.base.Circle;
 import bridges.base.Polyline;
 import bridges.base.SymbolCollection;
 import bridges.connect.Bridges;
-import bridges.connect.DataSource;
 import bridges.data_src_dependent.City;
+import edu.sxu.cs.geometry.Geometry;
 import edu.sxu.cs.geometry.Point;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class BridgesAppUSCities 
 {
+    //Hotspot settings: cities within CLUSTER_EPS degrees are neighbors, and a city
+    //  with at least CLUSTER_MIN_POINTS neighbors (itself included) starts a cluster
+    static final double CLUSTER_EPS = 3.0;
+    static final int CLUSTER_MIN_POINTS = 3;
+    static final String[] CLUSTER_COLORS = {"blue", "green", "orange", "purple", "cyan", "magenta", "brown", "yellow"};
+    
     /**
      * Runs all the logic for the BRIDGES assignment. Call from main.
      * @param bridges The initialized Bridges object
@@ -23,31 +30,77 @@ public class BridgesAppUSCities
      *   with the BRIDGES server.
      */
     public void run(Bridges bridges) throws java.io.IOException
+    {
+        //Download through the BRIDGES server, one data connection per request
+        run(bridges, DatasetSource.of(bridges));
+    }
+    
+    /**
+     * Runs the assignment with the data sets from source, such as a FakeDataSource.
+     * @param bridges The initialized Bridges object
+     * @param source Where to download the data sets from
+     * @throws java.io.IOException when a download fails
+     */
+    public void run(Bridges bridges, DatasetSource source) throws java.io.IOException
     {
         //Set some information for the BRIDGES object
         bridges.setTitle("Title of the project");
 	bridges.setDescription("Long description");
 
-        //Create the data connection object
-        DataSource ds = bridges.getDataSource();
-        
-        //Use the DataSource object to download a data set from the server
-         //US Cities data source
-        HashMap<String, String> options = new HashMap<>();
-        options.put ("min_pop", "500000");
-        List<City> cities = ds.getUSCitiesData(options);
-        
-        //Read the data set into a data structure
-         ArrayList<Point> dataPoints = new ArrayList<>();
-        for (City c : cities)
-            dataPoints.add(new Point(c.getLongitude(), c.getLatitude()));
+        //Each step starts as soon as the data it needs is in, and the
+        //  pipeline prints how long each one took at the end
+        StartupPipeline pipeline = new StartupPipeline();
+        ArrayList<Point> dataPoints;
+        int[] labels;
+        try (pipeline)
+        {
+            //Download a data set from the server
+            //US Cities data source
+            HashMap<String, String> options = new HashMap<>();
+            options.put ("min_pop", "500000");
+            CompletableFuture<List<City>> cities = pipeline.fetch("fetch cities", () -> source.getUSCitiesData(options));
+            
+            //Read the data set into a data structure. Quadtree.insert skips cities outside
+            //  its bounds, so the points and the clusters below are both read from the index:
+            //  quadtree ids follow insertion order, and labels[i] belongs to dataPoints.get(i).
+            CompletableFuture<QuadtreeSearch.Quadtree> index = pipeline.then("index cities", cities, list -> {
+                QuadtreeSearch.Quadtree quadtree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+                for (City c : list)
+                    quadtree.insert(new ExtendedOsmVertex(c.getLatitude(), c.getLongitude(), c.getCity()));
+                return quadtree;
+            });
+            CompletableFuture<ArrayList<Point>> points = pipeline.then("convert to points", index, quadtree -> {
+                ArrayList<Point> result = new ArrayList<>();
+                for (int id = 0; id < quadtree.size(); id++)
+                    result.add(new Point(quadtree.longitude(id), quadtree.latitude(id)));
+                return result;
+            });
+            
+            //Find the hotspots: clusters of cities within CLUSTER_EPS degrees of each other,
+            //  at the same time as the conversion above
+            CompletableFuture<int[]> clusters = pipeline.then("cluster cities", index,
+                    quadtree -> Dbscan.cluster(quadtree, CLUSTER_EPS, CLUSTER_MIN_POINTS));
+            
+            dataPoints = StartupPipeline.await(points);
+            labels = StartupPipeline.await(clusters);
+        }
+        if (labels.length != dataPoints.size())
+            throw new IllegalStateException(labels.length+" cluster labels for "+dataPoints.size()+" data points");
         
         //Process the data
          System.out.println(dataPoints.size()+" data points.");
+        int clusterCount = Dbscan.clusterCount(labels);
+        System.out.println(clusterCount+" clusters.");
         
         //Create a scene graph (SymbolCollection) object
-        SymbolCollection scene = new SymbolCollection();
+        SymbolCollection scene = pipeline.run("build symbols", () -> buildScene(dataPoints, labels, clusterCount));
         bridges.setDataStructure(scene);
+        System.out.print(pipeline.report());
+    }
+    
+    private static SymbolCollection buildScene(List<Point> dataPoints, int[] labels, int clusterCount)
+    {
+        SymbolCollection scene = new SymbolCollection();
         
         //Set the window (the visible range of X and Y)
         //  These numbers need to be set to something that works for the data set.
@@ -55,14 +108,40 @@ public class BridgesAppUSCities
         
         //Add shapes to the SymbolCollection for the server to draw
 
-        for (Point p : dataPoints)
+        //  Each city is colored by its cluster; cities in no cluster stay red
+        for (int i = 0; i < dataPoints.size(); i++)
         {
+            Point p = dataPoints.get(i);
             Circle c = new Circle((float)p.x, (float)p.y, 1.0f);
-            c.setFillColor("red");
+            c.setFillColor(labels[i] == Dbscan.NOISE ? "red" : CLUSTER_COLORS[labels[i] % CLUSTER_COLORS.length]);
             c.setOpacity(0.6f);
             scene.addSymbol(c);
         }
         
+        //  One outline per cluster, around the cluster's center
+        for (int k = 0; k < clusterCount; k++)
+        {
+            double sumX = 0, sumY = 0;
+            int size = 0;
+            for (int i = 0; i < labels.length; i++)
+                if (labels[i] == k)
+                {
+                    sumX += dataPoints.get(i).x;
+                    sumY += dataPoints.get(i).y;
+                    size++;
+                }
+            Point center = new Point(sumX/size, sumY/size);
+            double radius = 0;
+            for (int i = 0; i < labels.length; i++)
+                if (labels[i] == k)
+                    radius = Math.max(radius, Geometry.distance(center, dataPoints.get(i)));
+            Circle outline = new Circle((float)center.x, (float)center.y, (float)radius + 1.0f);
+            outline.setStrokeColor(CLUSTER_COLORS[k % CLUSTER_COLORS.length]);
+            outline.setStrokeWidth(0.2f);
+            outline.setOpacity(0.3f);
+            scene.addSymbol(outline);
+        }
+        
          Polyline boundingBox = new Polyline();
         boundingBox.setStrokeColor("blue");
     boundingBox.addPoint(-130, 50);  // Top-left
@@ -71,6 +150,7 @@ public class BridgesAppUSCities
     boundingBox.addPoint(-130, 25); // Bottom-left
      boundingBox.addPoint(-130, 50); 
         scene.addSymbol(boundingBox);
+        return scene;
     }
 
 }
@@ -0,0 +1,50 @@
+package bridgesbase;
+
+import bridges.connect.Bridges;
+import bridges.data_src_dependent.City;
+import bridges.data_src_dependent.OsmData;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The downloads the apps make, behind an interface so a StartupPipeline can be run against
+// FakeDataSource instead of the BRIDGES server. Implementations must allow calls from
+// several threads at once, since the pipeline fetches independent data sets concurrently;
+// the adapter from of() does so by giving every request its own DataSource.
+
+public interface DatasetSource {
+
+    /**
+     * @param options Query parameters, as for DataSource.getUSCitiesData (such as "min_pop")
+     */
+    List<City> getUSCitiesData(Map<String, String> options) throws IOException;
+
+    /**
+     * @param location Place name, such as "Chicago, Illinois"
+     * @param level Level of detail, such as "secondary"
+     */
+    OsmData getOsmData(String location, String level) throws IOException;
+
+    /**
+     * Each request gets its own DataSource from bridges.getDataSource(), so
+     * concurrent fetches share no connection state and run side by side,
+     * without a lock. Only the Bridges object, which holds the account
+     * settings, is shared, and it is only read.
+     * @return A source that downloads from the BRIDGES server for bridges
+     */
+    static DatasetSource of(Bridges bridges) {
+        return new DatasetSource() {
+            @Override
+            public List<City> getUSCitiesData(Map<String, String> options) throws IOException {
+                return bridges.getDataSource().getUSCitiesData(new HashMap<>(options));
+            }
+
+            @Override
+            public OsmData getOsmData(String location, String level) throws IOException {
+                return bridges.getDataSource().getOsmData(location, level);
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package bridgesbase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+// Density-based clustering (DBSCAN) of the points in a SpatialIndex, for finding hotspots.
+// A point is a core point when at least minPoints points (itself included) lie within eps of it.
+// Core points within eps of each other share a cluster; a non-core point joins the cluster of a
+// core point within eps, and any other point is noise.
+//
+// Neighbourhoods come from index radius queries instead of comparing every pair of points.
+// Both passes over the points run in parallel: the first finds the core points, the second
+// joins neighbouring core points in a lock-free union-find. Neighbourhoods are queried again
+// in the second pass rather than kept, so memory stays linear in the number of points.
+
+public final class Dbscan {
+
+    public static final int NOISE = -1;
+
+    private Dbscan() {
+    }
+
+    /**
+     * Clusters every point in an index.
+     * @param index The points, with their neighbourhood queries
+     * @param eps Neighbourhood radius, in the units of the index (degrees)
+     * @param minPoints Points needed within eps, counting the point itself, to be a core point
+     * @return The cluster of each point by id, numbered from 0 in order of
+     *   each cluster's lowest id, or NOISE
+     */
+    public static int[] cluster(SpatialIndex index, double eps, int minPoints) {
+        int n = index.size();
+
+        // Pass 1: core points
+        boolean[] core = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(i ->
+            core[i] = index.idsWithinRadius(index.longitude(i), index.latitude(i), eps).length >= minPoints);
+
+        // Pass 2: union neighbouring core points, and remember a core neighbour for each border point
+        AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) parent.set(i, i);
+        int[] borderOf = new int[n];
+        Arrays.fill(borderOf, NOISE);
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[] neighbours = index.idsWithinRadius(index.longitude(i), index.latitude(i), eps);
+            if (core[i]) {
+                for (int j : neighbours) {
+                    if (j > i && core[j]) union(parent, i, j);  // Each pair once
+                }
+            } else {
+                for (int j : neighbours) {
+                    if (core[j]) {
+                        borderOf[i] = j;
+                        break;
+                    }
+                }
+            }
+        });
+
+        // Number the clusters by their lowest id, so the labels do not depend on thread timing
+        int[] labels = new int[n];
+        int[] rootLabel = new int[n];
+        Arrays.fill(rootLabel, NOISE);
+        int clusters = 0;
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) continue;
+            int root = find(parent, i);
+            if (rootLabel[root] == NOISE) rootLabel[root] = clusters++;
+            labels[i] = rootLabel[root];
+        }
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) {
+                labels[i] = borderOf[i] == NOISE ? NOISE : rootLabel[find(parent, borderOf[i])];
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @return The number of clusters in labels returned by cluster
+     */
+    public static int clusterCount(int[] labels) {
+        int max = NOISE;
+        for (int label : labels) max = Math.max(max, label);
+        return max + 1;
+    }
+
+    // Root of i's set, halving the path on the way up
+    private static int find(AtomicIntegerArray parent, int i) {
+        while (true) {
+            int p = parent.get(i);
+            if (p == i) return i;
+            int gp = parent.get(p);
+            if (p != gp) parent.compareAndSet(i, p, gp);
+            i = gp;
+        }
+    }
+
+    // Always hang the larger root under the smaller one, so concurrent unions cannot form a cycle
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            int ra = find(parent, a), rb = find(parent, b);
+            if (ra == rb) return;
+            if (ra < rb) {
+                int t = ra;
+                ra = rb;
+                rb = t;
+            }
+            if (parent.compareAndSet(ra, ra, rb)) return;
+        }
+    }
+}
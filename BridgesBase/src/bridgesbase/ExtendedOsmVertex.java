@@ -25,6 +25,7 @@ public class ExtendedOsmVertex extends OsmVertex {
 
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(getLatitude(), getLongitude());
+        // Combine the bit hashes directly; Objects.hash would box both doubles on every call
+        return 31 * Double.hashCode(getLatitude()) + Double.hashCode(getLongitude());
     }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+package bridgesbase;
+
+import bridges.data_src_dependent.City;
+import bridges.data_src_dependent.OsmData;
+import bridges.data_src_dependent.OsmEdge;
+import bridges.data_src_dependent.OsmVertex;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A DatasetSource that answers from canned data after a fixed delay, standing in for the
+// BRIDGES server so startup can be timed and checked without a network or an account.
+// It counts how many requests were in flight at once, which shows whether a StartupPipeline
+// really fetched concurrently.
+//
+// main runs a sample startup (cities plus several OSM regions) both sequentially and through
+// the pipeline, and prints both timing breakdowns.
+
+public class FakeDataSource implements DatasetSource {
+
+    private final Duration latency;
+    private final List<City> cities;
+    private final Map<String, OsmData> regions = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * @param latency Delay before each answer
+     * @param cities Every city getUSCitiesData can return
+     */
+    public FakeDataSource(Duration latency, List<City> cities) {
+        this.latency = latency;
+        this.cities = new ArrayList<>(cities);
+    }
+
+    /**
+     * Sets the data returned for a location, at any level of detail.
+     * @return This source
+     */
+    public synchronized FakeDataSource addOsmData(String location, OsmData data) {
+        regions.put(location, data);
+        return this;
+    }
+
+    /**
+     * Supports the "min_pop" option; other options are ignored.
+     */
+    @Override
+    public List<City> getUSCitiesData(Map<String, String> options) throws IOException {
+        delay();
+        int minPopulation = Integer.parseInt(options.getOrDefault("min_pop", "0"));
+        List<City> result = new ArrayList<>();
+        for (City c : cities) {
+            if (c.getPopulation() >= minPopulation) result.add(c);
+        }
+        return result;
+    }
+
+    @Override
+    public OsmData getOsmData(String location, String level) throws IOException {
+        delay();
+        OsmData data;
+        synchronized (this) {
+            data = regions.get(location);
+        }
+        if (data == null) throw new IOException("No OSM data for " + location);
+        return data;
+    }
+
+    /**
+     * @return The most requests that were waiting at the same time
+     */
+    public int maxConcurrentRequests() {
+        return maxInFlight.get();
+    }
+
+    public int requests() {
+        return requests.get();
+    }
+
+    private void delay() throws IOException {
+        requests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for data", e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param args latency in milliseconds, number of OSM regions (defaults: 300, 4)
+     */
+    public static void main(String[] args) throws IOException {
+        int latencyMillis = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int regionCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        SplittableRandom rand = new SplittableRandom(11);
+
+        List<City> cities = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            cities.add(fakeCity("City " + i, rand.nextDouble(24.396308, 49.384358),
+                    rand.nextDouble(-125.0, -66.93457), rand.nextInt(1000, 5_000_000)));
+        }
+        FakeDataSource source = new FakeDataSource(Duration.ofMillis(latencyMillis), cities);
+        // Regions are 0.3 degree wide strips 0.2 degree apart, cut from one set of vertices,
+        // so the vertices where neighbouring regions overlap arrive twice
+        double[] lats = new double[50_000 * regionCount], lons = new double[lats.length];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = rand.nextDouble(41.7, 42.0);
+            lons[i] = rand.nextDouble(-88.0, -88.0 + 0.2 * regionCount + 0.1);
+        }
+        String[] locations = new String[regionCount];
+        for (int r = 0; r < regionCount; r++) {
+            locations[r] = "Region " + r;
+            double west = -88.0 + 0.2 * r;
+            List<OsmVertex> vertices = new ArrayList<>();
+            for (int i = 0; i < lats.length; i++) {
+                if (lons[i] >= west && lons[i] < west + 0.3) vertices.add(new OsmVertex(lats[i], lons[i]));
+            }
+            source.addOsmData(locations[r], fakeOsmData(vertices.toArray(new OsmVertex[0])));
+        }
+
+        for (boolean concurrent : new boolean[] {false, true}) {
+            source.maxInFlight.set(0);
+            try (StartupPipeline pipeline = new StartupPipeline(concurrent)) {
+                HashMap<String, String> options = new HashMap<>();
+                options.put("min_pop", "500000");
+                CompletableFuture<List<City>> fetched = pipeline.fetch("fetch cities", () -> source.getUSCitiesData(options));
+                CompletableFuture<SpatialIndex> cityIndex = pipeline.then("index cities", fetched, list -> {
+                    QuadtreeSearch.Quadtree quadtree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+                    for (City c : list) {
+                        quadtree.insert(new ExtendedOsmVertex(c.getLatitude(), c.getLongitude(), c.getCity()));
+                    }
+                    return quadtree;
+                });
+
+                // Each region is parsed into the shared pool as soon as it arrives
+                VertexPool pool = new VertexPool();
+                List<CompletableFuture<Integer>> parsed = new ArrayList<>();
+                for (String location : locations) {
+                    CompletableFuture<OsmData> osm = pipeline.fetch("fetch " + location, () -> source.getOsmData(location, "secondary"));
+                    parsed.add(pipeline.then("parse " + location, osm, data -> {
+                        for (OsmVertex v : data.getVertices()) {
+                            pool.intern(v.getLatitude(), v.getLongitude(), location);
+                        }
+                        return data.getVertices().length;
+                    }));
+                }
+                int downloaded = 0;
+                for (CompletableFuture<Integer> f : parsed) downloaded += StartupPipeline.await(f);
+                MortonIndex roads = pipeline.run("index road vertices", () -> new MortonIndex(pool.vertices()));
+                int cityCount = StartupPipeline.await(cityIndex).size();
+
+                System.out.printf("%s startup: %d cities, %d road vertices (%d downloaded), at most %d concurrent requests%n",
+                        concurrent ? "Pipelined" : "Sequential", cityCount, roads.size(), downloaded, source.maxConcurrentRequests());
+                System.out.println(pipeline.report());
+            }
+        }
+    }
+
+    static City fakeCity(String name, double latitude, double longitude, int population) {
+        return new City() {
+            @Override
+            public String getCity() {
+                return name;
+            }
+
+            @Override
+            public double getLatitude() {
+                return latitude;
+            }
+
+            @Override
+            public double getLongitude() {
+                return longitude;
+            }
+
+            @Override
+            public int getPopulation() {
+                return population;
+            }
+        };
+    }
+
+    static OsmData fakeOsmData(OsmVertex[] vertices) {
+        return new OsmData() {
+            @Override
+            public OsmVertex[] getVertices() {
+                return vertices;
+            }
+
+            @Override
+            public OsmEdge[] getEdges() {
+                return new OsmEdge[0];
+            }
+        };
+    }
+}
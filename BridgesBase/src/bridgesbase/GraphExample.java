@@ -15,6 +15,9 @@ import java.util.List;
 import java.util.Random;
 
 public class GraphExample{
+// Longest walk to take before giving up on reaching the end
+static final int MAX_WALK_STEPS = 10_000;
+
 /**
 * Runs all the logic for the BRIDGES assignment. Call from main.
 * @param bridges The initialized Bridges object
@@ -75,6 +78,14 @@ highways.addEdge("Indianapolis", "Detroit", 289.0);
 
         // Perform a random walk from Atlanta to Chicago
         randomWalk(highways, "Atlanta", "Chicago");
+
+        // Estimate the hitting time from Atlanta to Chicago over many walks: first for the
+        // same walk as above, where every highway out of a city is equally likely, then for
+        // a walk that prefers shorter highways (probability proportional to 1 / miles)
+        RandomWalkEngine uniform = new RandomWalkEngine(highways, RandomWalkEngine.UNIFORM);
+        printHittingTime(uniform, "Atlanta", "Chicago", "uniform walk");
+        RandomWalkEngine shortFirst = new RandomWalkEngine(highways, RandomWalkEngine.INVERSE_EDGE_DATA);
+        printHittingTime(shortFirst, "Atlanta", "Chicago", "walk weighted by 1 / miles");
 //finish
 
 //Create a scene
@@ -87,6 +98,13 @@ bridges.setDataStructure(highways);
 
 
 
+private static void printHittingTime(RandomWalkEngine engine, String start, String end, String walk) {
+    RandomWalkEngine.WalkStats stats = engine.walk(engine.vertexId(start), engine.vertexId(end),
+            1_000_000, MAX_WALK_STEPS, 2025);
+    System.out.printf("Mean hitting time %s -> %s, %s: %.2f steps (%.1f%% of %d walks arrived)%n",
+            start, end, walk, stats.meanHittingTime(), 100 * stats.hitFraction(), stats.walks());
+}
+
 public void randomWalk(GraphAdjList<String, String, Double> highways, String start, String end) {
     Random rand = new Random();
     String current = start;
@@ -94,6 +112,11 @@ public void randomWalk(GraphAdjList<String, String, Double> highways, String sta
     path.add(current);
 
     while (!current.equals(end)) {
+        if (path.size() > MAX_WALK_STEPS) {
+            System.out.println("Gave up after " + MAX_WALK_STEPS + " steps without reaching " + end);
+            break;
+        }
+
         // Get outgoing edges for the current city
         Collection<Edge<String, Double>> neighbors = (Collection<Edge<String, Double>>) highways.outgoingEdgeSetOf(current); 
 
@@ -0,0 +1,39 @@
+package bridgesbase;
+
+import java.util.Arrays;
+
+// Growable int array so point ids stay unboxed in index nodes and query results
+
+final class IdList {
+    private int[] ids;
+    private int size;
+
+    IdList() {
+        this(16);
+    }
+
+    IdList(int capacity) {
+        ids = new int[Math.max(1, capacity)];
+    }
+
+    void add(int id) {
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        ids[size++] = id;
+    }
+
+    void addRange(int from, int to) {
+        for (int id = from; id < to; id++) add(id);
+    }
+
+    int get(int i) {
+        return ids[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+}
@@ -0,0 +1,420 @@
+package bridgesbase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import edu.sxu.cs.geometry.FixedPoint;
+import edu.sxu.cs.geometry.Geometry;
+
+// Linear quadtree: every point gets a Morton (Z-order) key by interleaving the bits of its
+// quantized longitude and latitude, and the points are sorted by key into flat arrays.
+// A quadtree cell at any level is then one contiguous run of keys, so the tree is never
+// stored; queries descend over key ranges found by binary search, and a cell that lies
+// completely inside the query is reported as a single range with no per-point tests.
+// Point ids are positions in key order, so nearby points have nearby ids.
+//
+// Coordinates are kept as FixedPoint ints (1e-7 degree), half the size of doubles, and keys are
+// computed from those rounded values so every stored point lies in its own cell. See FixedPoint
+// for how the rounding affects query results. Optionally each block of LEAF_SIZE consecutive
+// ids is compressed further: neighbours in key order are close together, so each point is
+// stored as the zigzag varint difference from the one before it, usually a few bytes.
+
+public class MortonIndex implements SpatialIndex {
+
+    static final int BITS = 31;  // Bits per axis; keys use 62 bits and stay positive
+    static final int LEAF_SIZE = 16;  // Key ranges this short are scanned rather than split
+
+    // Same world bounds as the QuadtreeSearch root
+    static final double X_MIN = -180, X_MAX = 180, Y_MIN = -90, Y_MAX = 90;
+    // Cells are widened by this much so rounding never leaves a point outside its cell
+    private static final double CELL_SLACK = 1e-9;
+
+    private final long[] keys;
+    private final int[] xs, ys;  // Fixed-point coordinates, or null when compressed
+    private final byte[] packed;  // Compressed coordinates, one block per LEAF_SIZE ids
+    private final int[] blockStarts;  // Where each block starts in packed
+    private final String[] names;
+    // The last point each thread read from packed blocks: {id, FixedPoint.pack(x, y)}, so
+    // latitude(id) right after longitude(id) does not decode the block again
+    private final ThreadLocal<long[]> lastPoint = ThreadLocal.withInitial(() -> new long[] {-1, 0});
+
+    /**
+     * Builds the index, with uncompressed coordinates.
+     */
+    public MortonIndex(List<ExtendedOsmVertex> cities) {
+        this(cities, false);
+    }
+
+    /**
+     * Builds the index. Cities outside the world bounds are skipped, as
+     * Quadtree.insert does.
+     * @param cities The cities to index
+     * @param compressLeaves Whether to store coordinates as delta/varint blocks,
+     *   trading some query time for memory
+     */
+    public MortonIndex(List<ExtendedOsmVertex> cities, boolean compressLeaves) {
+        List<ExtendedOsmVertex> inside = new ArrayList<>(cities.size());
+        for (ExtendedOsmVertex city : cities) {
+            if (city.getLongitude() >= X_MIN && city.getLongitude() <= X_MAX &&
+                city.getLatitude() >= Y_MIN && city.getLatitude() <= Y_MAX) {
+                inside.add(city);
+            }
+        }
+
+        int n = inside.size();
+        int[] fx = new int[n], fy = new int[n];
+        long[] unsorted = new long[n];
+        for (int i = 0; i < n; i++) {
+            fx[i] = FixedPoint.fromDegrees(inside.get(i).getLongitude());
+            fy[i] = FixedPoint.fromDegrees(inside.get(i).getLatitude());
+            unsorted[i] = key(FixedPoint.toDegrees(fx[i]), FixedPoint.toDegrees(fy[i]));
+        }
+        int[] order = RadixSort.order(unsorted);
+
+        keys = new long[n];
+        int[] sx = new int[n], sy = new int[n];
+        names = new String[n];
+        for (int id = 0; id < n; id++) {
+            keys[id] = unsorted[order[id]];
+            sx[id] = fx[order[id]];
+            sy[id] = fy[order[id]];
+            names[id] = inside.get(order[id]).getCity();
+        }
+
+        if (compressLeaves) {
+            xs = null;
+            ys = null;
+            blockStarts = new int[(n + LEAF_SIZE - 1) / LEAF_SIZE];
+            packed = compress(sx, sy, blockStarts);
+        } else {
+            xs = sx;
+            ys = sy;
+            blockStarts = null;
+            packed = null;
+        }
+    }
+
+    private static byte[] compress(int[] sx, int[] sy, int[] blockStarts) {
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        for (int b = 0; b < blockStarts.length; b++) {
+            blockStarts[b] = out.size();
+            int x = 0, y = 0;  // The first point of a block is stored relative to (0, 0)
+            for (int id = b * LEAF_SIZE; id < Math.min(sx.length, (b + 1) * LEAF_SIZE); id++) {
+                writeVarint(out, sx[id] - x);
+                writeVarint(out, sy[id] - y);
+                x = sx[id];
+                y = sy[id];
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // Zigzag first, so small negative differences also take few bytes
+    private static void writeVarint(java.io.ByteArrayOutputStream out, int value) {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    // Reads the fixed-point coordinates of block b into bx and by and returns how many there are
+    private int readBlock(int b, int[] bx, int[] by) {
+        int from = b * LEAF_SIZE;
+        int count = Math.min(LEAF_SIZE, keys.length - from);
+        if (packed == null) {
+            System.arraycopy(xs, from, bx, 0, count);
+            System.arraycopy(ys, from, by, 0, count);
+            return count;
+        }
+        decode(b, count, bx, by);
+        return count;
+    }
+
+    // Decodes the first count points of packed block b into bx and by, when they are not null,
+    // and returns the last one decoded as FixedPoint.pack(x, y)
+    private long decode(int b, int count, int[] bx, int[] by) {
+        int pos = blockStarts[b];
+        int x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 2; axis++) {
+                int v = 0, shift = 0;
+                byte next;
+                do {
+                    next = packed[pos++];
+                    v |= (next & 0x7F) << shift;
+                    shift += 7;
+                } while (next < 0);
+                int delta = (v >>> 1) ^ -(v & 1);
+                if (axis == 0) x += delta;
+                else y += delta;
+            }
+            if (bx != null) {
+                bx[i] = x;
+                by[i] = y;
+            }
+        }
+        return FixedPoint.pack(x, y);
+    }
+
+    /**
+     * @return Bytes used to store the coordinates
+     */
+    public long coordinateBytes() {
+        return packed == null ? 8L * keys.length : packed.length + 4L * blockStarts.length;
+    }
+
+    /**
+     * Builds a Morton index holding the same points as another index.
+     */
+    public static MortonIndex copyOf(SpatialIndex source) {
+        List<ExtendedOsmVertex> cities = new ArrayList<>(source.size());
+        for (int id = 0; id < source.size(); id++) {
+            cities.add(new ExtendedOsmVertex(source.latitude(id), source.longitude(id), source.name(id)));
+        }
+        return new MortonIndex(cities);
+    }
+
+    static long key(double x, double y) {
+        return interleave(quantize(x, X_MIN, X_MAX), quantize(y, Y_MIN, Y_MAX));
+    }
+
+    static long quantize(double v, double min, double max) {
+        long q = (long) Math.floor((v - min) / (max - min) * (1L << BITS));
+        return Math.max(0, Math.min((1L << BITS) - 1, q));
+    }
+
+    // x bits go to the even positions and y bits to the odd ones
+    static long interleave(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    // First position in [from, to) whose key is >= key
+    private int lowerBound(int from, int to, long key) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (keys[mid] < key) from = mid + 1;
+            else to = mid;
+        }
+        return from;
+    }
+
+    private static double cellMin(double min, double max, long c, int level) {
+        return min + c * ((max - min) / (1L << level)) - CELL_SLACK;
+    }
+
+    private static double cellMax(double min, double max, long c, int level) {
+        return min + (c + 1) * ((max - min) / (1L << level)) + CELL_SLACK;
+    }
+
+    // A query shape, tested against cells and points
+    private interface Region {
+        boolean intersects(double cxMin, double cxMax, double cyMin, double cyMax);
+
+        boolean covers(double cxMin, double cxMax, double cyMin, double cyMax);
+
+        boolean contains(double x, double y);
+    }
+
+    private record Window(double xMin, double xMax, double yMin, double yMax) implements Region {
+        public boolean intersects(double cxMin, double cxMax, double cyMin, double cyMax) {
+            return cxMin <= xMax && cxMax >= xMin && cyMin <= yMax && cyMax >= yMin;
+        }
+
+        public boolean covers(double cxMin, double cxMax, double cyMin, double cyMax) {
+            return cxMin >= xMin && cxMax <= xMax && cyMin >= yMin && cyMax <= yMax;
+        }
+
+        public boolean contains(double x, double y) {
+            return x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+        }
+    }
+
+    private record Disk(double qx, double qy, double radiusSq) implements Region {
+        public boolean intersects(double cxMin, double cxMax, double cyMin, double cyMax) {
+            return Geometry.squareDistanceToRectangle(qx, qy, cxMin, cxMax, cyMin, cyMax) <= radiusSq;
+        }
+
+        public boolean covers(double cxMin, double cxMax, double cyMin, double cyMax) {
+            // The farthest corner of the cell is inside the circle
+            double dx = Math.max(qx - cxMin, cxMax - qx);
+            double dy = Math.max(qy - cyMin, cyMax - qy);
+            return dx * dx + dy * dy <= radiusSq;
+        }
+
+        public boolean contains(double x, double y) {
+            double dx = x - qx, dy = y - qy;
+            return dx * dx + dy * dy <= radiusSq;
+        }
+    }
+
+    // Squared min distance from (qx, qy) to a cell
+    @Override
+    public int[] idsWithinRadius(double qx, double qy, double radius) {
+        return query(new Disk(qx, qy, radius * radius));
+    }
+
+    @Override
+    public int[] idsInWindow(double xMin, double xMax, double yMin, double yMax) {
+        return query(new Window(xMin, xMax, yMin, yMax));
+    }
+
+    private int[] query(Region region) {
+        IdList results = new IdList();
+        collect(region, 0, 0, 0, 0, keys.length, results, new int[2][LEAF_SIZE]);
+        return results.toArray();
+    }
+
+    // Visit the cell (cx, cy) at a level, whose points are the ids lo .. hi - 1
+    private void collect(Region region, int level, long cx, long cy, int lo, int hi, IdList results, int[][] block) {
+        if (lo >= hi) return;
+
+        double cxMin = cellMin(X_MIN, X_MAX, cx, level), cxMax = cellMax(X_MIN, X_MAX, cx, level);
+        double cyMin = cellMin(Y_MIN, Y_MAX, cy, level), cyMax = cellMax(Y_MIN, Y_MAX, cy, level);
+        if (!region.intersects(cxMin, cxMax, cyMin, cyMax)) return;
+
+        if (region.covers(cxMin, cxMax, cyMin, cyMax)) {
+            results.addRange(lo, hi);
+            return;
+        }
+
+        if (hi - lo <= LEAF_SIZE || level == BITS) {
+            if (packed == null) {
+                for (int id = lo; id < hi; id++) {
+                    if (region.contains(FixedPoint.toDegrees(xs[id]), FixedPoint.toDegrees(ys[id]))) results.add(id);
+                }
+                return;
+            }
+            for (int b = lo / LEAF_SIZE; b * LEAF_SIZE < hi; b++) {
+                int base = b * LEAF_SIZE;
+                int count = readBlock(b, block[0], block[1]);
+                for (int id = Math.max(lo, base); id < Math.min(hi, base + count); id++) {
+                    if (region.contains(FixedPoint.toDegrees(block[0][id - base]),
+                                        FixedPoint.toDegrees(block[1][id - base]))) {
+                        results.add(id);
+                    }
+                }
+            }
+            return;
+        }
+
+        // Split the range between the four children, in Z order
+        int shift = 2 * (BITS - level - 1);
+        long prefix = interleave(cx, cy) << 2;
+        int start = lo;
+        for (int c = 0; c < 4; c++) {
+            int end = c == 3 ? hi : lowerBound(start, hi, (prefix + c + 1) << shift);
+            collect(region, level + 1, 2 * cx + (c & 1), 2 * cy + (c >> 1), start, end, results, block);
+            start = end;
+        }
+    }
+
+    @Override
+    public int[] nearest(double qx, double qy, int k) {
+        k = Math.min(k, keys.length);
+        if (k <= 0) return new int[0];
+
+        // Max-heap of the best candidates so far, farthest on top
+        PriorityQueue<double[]> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+        // Min-heap of cells to visit: {distSq, level, cx, cy, lo, hi}
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        queue.add(new double[] {0, 0, 0, 0, 0, keys.length});
+        int[] bx = new int[LEAF_SIZE], by = new int[LEAF_SIZE];
+
+        while (!queue.isEmpty()) {
+            double[] cell = queue.poll();
+            if (best.size() == k && cell[0] > best.peek()[0]) break;
+            int level = (int) cell[1];
+            long cx = (long) cell[2], cy = (long) cell[3];
+            int lo = (int) cell[4], hi = (int) cell[5];
+
+            if (hi - lo <= LEAF_SIZE || level == BITS) {
+                for (int b = lo / LEAF_SIZE; b * LEAF_SIZE < hi; b++) {
+                    int base = b * LEAF_SIZE;
+                    int count = readBlock(b, bx, by);
+                    for (int id = Math.max(lo, base); id < Math.min(hi, base + count); id++) {
+                        double dx = FixedPoint.toDegrees(bx[id - base]) - qx;
+                        double dy = FixedPoint.toDegrees(by[id - base]) - qy;
+                        double distSq = dx * dx + dy * dy;
+                        if (best.size() < k) {
+                            best.add(new double[] {distSq, id});
+                        } else if (distSq < best.peek()[0]) {
+                            best.poll();
+                            best.add(new double[] {distSq, id});
+                        }
+                    }
+                }
+                continue;
+            }
+
+            int shift = 2 * (BITS - level - 1);
+            long prefix = interleave(cx, cy) << 2;
+            int start = lo;
+            for (int c = 0; c < 4; c++) {
+                int end = c == 3 ? hi : lowerBound(start, hi, (prefix + c + 1) << shift);
+                if (end > start) {
+                    long ccx = 2 * cx + (c & 1), ccy = 2 * cy + (c >> 1);
+                    double d = Geometry.squareDistanceToRectangle(qx, qy,
+                            cellMin(X_MIN, X_MAX, ccx, level + 1), cellMax(X_MIN, X_MAX, ccx, level + 1),
+                            cellMin(Y_MIN, Y_MAX, ccy, level + 1), cellMax(Y_MIN, Y_MAX, ccy, level + 1));
+                    queue.add(new double[] {d, level + 1, ccx, ccy, start, end});
+                }
+                start = end;
+            }
+        }
+
+        int[] ids = new int[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = (int) best.poll()[1];
+        }
+        return ids;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public double longitude(int id) {
+        return FixedPoint.toDegrees(xs != null ? xs[id] : FixedPoint.unpackX(readPoint(id)));
+    }
+
+    @Override
+    public double latitude(int id) {
+        return FixedPoint.toDegrees(ys != null ? ys[id] : FixedPoint.unpackY(readPoint(id)));
+    }
+
+    // Both coordinates of one point from its packed block, decoding only up to that point
+    private long readPoint(int id) {
+        long[] last = lastPoint.get();
+        if (last[0] == id) return last[1];
+        if (id < 0 || id >= keys.length) throw new IndexOutOfBoundsException("No point " + id);
+        last[1] = decode(id / LEAF_SIZE, id % LEAF_SIZE + 1, null, null);
+        last[0] = id;
+        return last[1];
+    }
+
+    @Override
+    public String name(int id) {
+        return names[id];
+    }
+
+    // The index cannot change after it is built
+    @Override
+    public long version() {
+        return 0;
+    }
+}
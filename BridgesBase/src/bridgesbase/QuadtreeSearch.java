@@ -7,10 +7,17 @@ import bridges.base.SymbolCollection;
 import bridges.connect.Bridges;
 import bridges.base.Text;
 import bridges.base.Circle;
+import edu.sxu.cs.geometry.Geometry;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Vector;
 import java.util.Scanner;
 
@@ -19,6 +26,14 @@ import java.util.Scanner;
 
 public class QuadtreeSearch {
 
+    // Saved index reused across runs, see QuadtreeSnapshot. The cities are downloaded again
+    // once the snapshot is older than SNAPSHOT_MAX_AGE, or on any run started with
+    // -Dquadtree.rebuild=true
+    static final String DATASET = "us-cities";
+    static final Path SNAPSHOT_FILE = Path.of("uscities.qts");
+    static final Duration SNAPSHOT_MAX_AGE = Duration.ofDays(7);
+    static final String REBUILD_PROPERTY = "quadtree.rebuild";
+
     public void run(Bridges bridges) throws java.io.IOException {
         // Set up BRIDGES
         bridges.setTitle("Quadtree Construction and Search");
@@ -26,42 +41,63 @@ public class QuadtreeSearch {
         // Create the data connection object
         DataSource ds = bridges.getDataSource();
 
-        // Fetch all US cities
+        // Reuse the index from the last run when the data set request has not changed and the
+        // snapshot is fresh, otherwise download the cities, build the quadtree and save it for next time
         HashMap<String, String> params = new HashMap<>(); // Empty params for all cities
-        Vector<City> cities = ds.getUSCitiesData(params);
-
-        // Check if data is retrieved
-        if (cities == null || cities.isEmpty()) {
-            System.err.println("Error: No city data retrieved. Please check the parameters or API connection.");
-            return;
+        long datasetKey = QuadtreeSnapshot.datasetKey(DATASET, params);
+        SpatialIndex index = null;
+        if (Boolean.getBoolean(REBUILD_PROPERTY)) {
+            System.out.println("Rebuilding the quadtree snapshot (-D" + REBUILD_PROPERTY + "=true)");
+        } else if (Files.exists(SNAPSHOT_FILE)) {
+            try {
+                index = QuadtreeSnapshot.load(SNAPSHOT_FILE, datasetKey, SNAPSHOT_MAX_AGE);
+                System.out.println("Loaded quadtree snapshot from " + SNAPSHOT_FILE);
+            } catch (java.io.IOException e) {
+                System.err.println("Ignoring quadtree snapshot: " + e.getMessage());
+            }
         }
+        if (index == null) {
+            Vector<City> cities = ds.getUSCitiesData(params);
+
+            // Check if data is retrieved
+            if (cities == null || cities.isEmpty()) {
+                System.err.println("Error: No city data retrieved. Please check the parameters or API connection.");
+                return;
+            }
 
-        System.out.println("Number of cities retrieved: " + cities.size());
+            System.out.println("Number of cities retrieved: " + cities.size());
+
+            // Create a Quadtree for spatial indexing
+            Quadtree quadtree = new Quadtree(-180, 180, -90, 90); // Using lat/long bounds for the entire world
+            for (City city : cities) {
+                quadtree.insert(new ExtendedOsmVertex(city.getLatitude(), city.getLongitude(), city.getCity()));
+            }
+            index = quadtree;
+
+            // A snapshot only saves time on the next run, so keep going without one if it cannot be saved
+            try {
+                QuadtreeSnapshot.write(quadtree, datasetKey, SNAPSHOT_FILE);
+                index = QuadtreeSnapshot.load(SNAPSHOT_FILE, datasetKey);
+            } catch (java.io.IOException e) {
+                System.err.println("Warning: could not save quadtree snapshot, using the in-memory quadtree: " + e.getMessage());
+            }
+        }
 
         // Create a SymbolCollection for visualization
         SymbolCollection symbolCollection = new SymbolCollection();
         symbolCollection.setViewport(-125.0f, -66.93457f, 24.396308f, 49.384358f); // U.S. bounds
 
-        // Create a Quadtree for spatial indexing
-        Quadtree quadtree = new Quadtree(-180, 180, -90, 90); // Using lat/long bounds for the entire world
-
-        // Add cities to the Quadtree and SymbolCollection
-        for (City city : cities) {
-            double lat = city.getLatitude();
-            double lon = city.getLongitude();
-            String cityName = city.getCity();
-
-            // Add the city to the Quadtree
-            ExtendedOsmVertex vertex = new ExtendedOsmVertex(lat, lon, cityName);
-            quadtree.insert(vertex);
-
-            // Create a text symbol for each city
-            Text cityText = new Text(cityName);
-            cityText.setAnchorLocation((float) lon, (float) lat);
+        // Create a text symbol for each city
+        for (int id = 0; id < index.size(); id++) {
+            Text cityText = new Text(index.name(id));
+            cityText.setAnchorLocation((float) index.longitude(id), (float) index.latitude(id));
             cityText.setFontSize((float) 0.02); // Reduced font size to make it smaller
             symbolCollection.addSymbol(cityText);
         }
 
+        // Repeated searches for the same city and radius are answered from here
+        QueryCache cache = new QueryCache(1000);
+
         // Keep prompting the user for searches until they input 'q'
 try (Scanner scanner = new Scanner(System.in)) {
     while (true) {
@@ -70,6 +106,7 @@ try (Scanner scanner = new Scanner(System.in)) {
 
         // Exit the loop if the user inputs 'q'
         if (searchCityName.equalsIgnoreCase("q")) {
+            System.out.println("Query cache: " + cache);
             break;
         }
 
@@ -80,33 +117,35 @@ try (Scanner scanner = new Scanner(System.in)) {
         double radiusInDegrees = radiusInMiles / 69.0;
 
         // Find the city to use as the query point
-        City queryCity = null;
-        for (City city : cities) {
-            if (city.getCity().equalsIgnoreCase(searchCityName)) {
-                queryCity = city;
+        int queryCity = -1;
+        for (int id = 0; id < index.size(); id++) {
+            if (index.name(id).equalsIgnoreCase(searchCityName)) {
+                queryCity = id;
                 break;
             }
         }
 
-        if (queryCity == null) {
+        if (queryCity < 0) {
             System.out.println("City not found in the dataset.");
             continue;
         }
 
         // Query the quadtree for cities within the radius
-        List<ExtendedOsmVertex> nearbyCities = quadtree.pointsWithinRadius(queryCity.getLongitude(), queryCity.getLatitude(), radiusInDegrees);
+        double queryLon = index.longitude(queryCity);
+        double queryLat = index.latitude(queryCity);
+        int[] nearbyCities = cache.pointsWithinRadius(index, queryCity, radiusInMiles);
 
-        if (!nearbyCities.isEmpty()) {
+        if (nearbyCities.length > 0) {
             System.out.println("Cities within the radius:");
-            for (ExtendedOsmVertex city : nearbyCities) {
-                System.out.printf("City: %s at %.4f, %.4f\n", city.getCity(), city.getLatitude(), city.getLongitude());
+            for (int city : nearbyCities) {
+                System.out.printf("City: %s at %.4f, %.4f\n", index.name(city), index.latitude(city), index.longitude(city));
             }
         } else {
             System.out.println("No cities found within the radius.");
         }
 
         // Draw a circle representing the search radius
-        Circle searchRadiusCircle = new Circle((float) queryCity.getLongitude(), (float) queryCity.getLatitude(), (float) radiusInDegrees);
+        Circle searchRadiusCircle = new Circle((float) queryLon, (float) queryLat, (float) radiusInDegrees);
         searchRadiusCircle.setStrokeColor("blue"); // Set the circle's border color
         searchRadiusCircle.setStrokeWidth(0.02f); // Set the border thickness
         searchRadiusCircle.setFillColor("black"); // Set the fill color with transparency
@@ -126,17 +165,29 @@ try (Scanner scanner = new Scanner(System.in)) {
     }
 
     // Quadtree implementation to handle 2D spatial data
-    static class Quadtree {
+    static class Quadtree implements SpatialIndex {
+        static final int CAPACITY = 4;  // Cities a node holds before it subdivides
+        static final int MAX_DEPTH = 32;  // Nodes this deep never subdivide, so repeated coordinates cannot recurse forever
+
         double xMin, xMax, yMin, yMax;  // Bounds of the region
-        List<ExtendedOsmVertex> cities;  // Cities contained in this node
+        final List<ExtendedOsmVertex> points;  // Every city in the tree, indexed by id (shared by all nodes)
+        IdList cities;  // Ids of the cities contained in this node
         Quadtree[] children;  // Child nodes
+        final int depth;
+        long version;  // Bumped on every insert into the root
 
         Quadtree(double xMin, double xMax, double yMin, double yMax) {
+            this(xMin, xMax, yMin, yMax, new ArrayList<>(), 0);
+        }
+
+        private Quadtree(double xMin, double xMax, double yMin, double yMax, List<ExtendedOsmVertex> points, int depth) {
             this.xMin = xMin;
             this.xMax = xMax;
             this.yMin = yMin;
             this.yMax = yMax;
-            this.cities = new ArrayList<>();
+            this.points = points;
+            this.depth = depth;
+            this.cities = new IdList(CAPACITY);
             this.children = new Quadtree[4];  // Four quadrants
         }
 
@@ -151,32 +202,45 @@ try (Scanner scanner = new Scanner(System.in)) {
             double xMid = (xMin + xMax) / 2;
             double yMid = (yMin + yMax) / 2;
 
-            children[0] = new Quadtree(xMin, xMid, yMin, yMid);  // Bottom-left
-            children[1] = new Quadtree(xMid, xMax, yMin, yMid);  // Bottom-right
-            children[2] = new Quadtree(xMin, xMid, yMid, yMax);  // Top-left
-            children[3] = new Quadtree(xMid, xMax, yMid, yMax);  // Top-right
+            children[0] = new Quadtree(xMin, xMid, yMin, yMid, points, depth + 1);  // Bottom-left
+            children[1] = new Quadtree(xMid, xMax, yMin, yMid, points, depth + 1);  // Bottom-right
+            children[2] = new Quadtree(xMin, xMid, yMid, yMax, points, depth + 1);  // Top-left
+            children[3] = new Quadtree(xMid, xMax, yMid, yMax, points, depth + 1);  // Top-right
         }
 
-        // Insert city into the quadtree
+        // Insert city into the quadtree; its id is its position in insertion order
         void insert(ExtendedOsmVertex city) {
             if (!isWithinBounds(city)) return;  // If the city is outside bounds
 
-            if (cities.size() < 4) {  // If the node can hold more cities, add here
-                cities.add(city);
+            points.add(city);
+            version++;
+            insert(points.size() - 1);
+        }
+
+        private void insert(int id) {
+            if (cities.size() < CAPACITY || depth == MAX_DEPTH) {  // If the node can hold more cities, add here
+                cities.add(id);
             } else {
                 if (children[0] == null) subdivide();  // Subdivide if needed
 
-                // Try inserting city in the children
+                // Insert the city into the first child that contains it, so a city
+                // on a shared edge is stored (and found) only once
+                ExtendedOsmVertex city = points.get(id);
                 for (Quadtree child : children) {
-                    child.insert(city);
+                    if (child.isWithinBounds(city)) {
+                        child.insert(id);
+                        return;
+                    }
                 }
             }
         }
 
         // Find city in the quadtree
         boolean search(ExtendedOsmVertex target) {
-            if (cities.contains(target)) {
-                return true;  // Found the city
+            for (int i = 0; i < cities.size(); i++) {
+                if (points.get(cities.get(i)).equals(target)) {
+                    return true;  // Found the city
+                }
             }
 
             // Check in children nodes if subdivided
@@ -191,35 +255,38 @@ try (Scanner scanner = new Scanner(System.in)) {
             return false;  // City not found
         }
 
-       
         public List<ExtendedOsmVertex> pointsWithinRadius(double qx, double qy, double radius) {
             List<ExtendedOsmVertex> results = new ArrayList<>();
-            pointsWithinRadiusHelper(this, qx, qy, radius, results);
+            for (int id : idsWithinRadius(qx, qy, radius)) {
+                results.add(points.get(id));
+            }
             return results;
         }
 
-        private void pointsWithinRadiusHelper(Quadtree node, double qx, double qy, double radius, List<ExtendedOsmVertex> results) {
+        @Override
+        public int[] idsWithinRadius(double qx, double qy, double radius) {
+            IdList results = new IdList();
+            pointsWithinRadiusHelper(this, qx, qy, radius, results);
+            return results.toArray();
+        }
+
+        private void pointsWithinRadiusHelper(Quadtree node, double qx, double qy, double radius, IdList results) {
             if (node == null) return;
 
             // Compute squared min distance from (qx, qy) to this node's rectangle
-            double dx = 0, dy = 0;
-            if (qx < node.xMin) dx = node.xMin - qx;
-            else if (qx > node.xMax) dx = qx - node.xMax;
-            if (qy < node.yMin) dy = node.yMin - qy;
-            else if (qy > node.yMax) dy = qy - node.yMax;
-            double rectDistSq = dx * dx + dy * dy;
-            if (rectDistSq > radius * radius) {
-                
+            if (node.distanceSq(qx, qy) > radius * radius) {
                 return;
             }
 
             // Check each city in this node
-            for (ExtendedOsmVertex city : node.cities) {
+            for (int i = 0; i < node.cities.size(); i++) {
+                int id = node.cities.get(i);
+                ExtendedOsmVertex city = points.get(id);
                 double ddx = city.getLongitude() - qx;
                 double ddy = city.getLatitude() - qy;
                 double distSq = ddx * ddx + ddy * ddy;
                 if (distSq <= radius * radius) {
-                    results.add(city);
+                    results.add(id);
                 }
             }
 
@@ -230,5 +297,101 @@ try (Scanner scanner = new Scanner(System.in)) {
                 }
             }
         }
+
+        @Override
+        public int[] idsInWindow(double wxMin, double wxMax, double wyMin, double wyMax) {
+            IdList results = new IdList();
+            pointsInWindowHelper(this, wxMin, wxMax, wyMin, wyMax, results);
+            return results.toArray();
+        }
+
+        private void pointsInWindowHelper(Quadtree node, double wxMin, double wxMax, double wyMin, double wyMax, IdList results) {
+            if (node.xMin > wxMax || node.xMax < wxMin || node.yMin > wyMax || node.yMax < wyMin) return;
+
+            for (int i = 0; i < node.cities.size(); i++) {
+                ExtendedOsmVertex city = points.get(node.cities.get(i));
+                if (city.getLongitude() >= wxMin && city.getLongitude() <= wxMax &&
+                    city.getLatitude() >= wyMin && city.getLatitude() <= wyMax) {
+                    results.add(node.cities.get(i));
+                }
+            }
+
+            if (node.children[0] != null) {
+                for (Quadtree child : node.children) {
+                    pointsInWindowHelper(child, wxMin, wxMax, wyMin, wyMax, results);
+                }
+            }
+        }
+
+        @Override
+        public int[] nearest(double qx, double qy, int k) {
+            k = Math.min(k, points.size());
+            if (k <= 0) return new int[0];
+
+            // Max-heap of the best candidates so far, farthest on top
+            PriorityQueue<double[]> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+            // Nodes to visit, closest first
+            PriorityQueue<Quadtree> queue = new PriorityQueue<>(Comparator.comparingDouble(n -> n.distanceSq(qx, qy)));
+            queue.add(this);
+
+            while (!queue.isEmpty()) {
+                Quadtree node = queue.poll();
+                if (best.size() == k && node.distanceSq(qx, qy) > best.peek()[0]) break;
+
+                for (int i = 0; i < node.cities.size(); i++) {
+                    int id = node.cities.get(i);
+                    ExtendedOsmVertex city = points.get(id);
+                    double dx = city.getLongitude() - qx;
+                    double dy = city.getLatitude() - qy;
+                    double distSq = dx * dx + dy * dy;
+                    if (best.size() < k) {
+                        best.add(new double[] {distSq, id});
+                    } else if (distSq < best.peek()[0]) {
+                        best.poll();
+                        best.add(new double[] {distSq, id});
+                    }
+                }
+
+                if (node.children[0] != null) {
+                    queue.addAll(Arrays.asList(node.children));
+                }
+            }
+
+            int[] ids = new int[best.size()];
+            for (int i = ids.length - 1; i >= 0; i--) {
+                ids[i] = (int) best.poll()[1];
+            }
+            return ids;
+        }
+
+        // Squared min distance from (qx, qy) to this node's rectangle
+        double distanceSq(double qx, double qy) {
+            return Geometry.squareDistanceToRectangle(qx, qy, xMin, xMax, yMin, yMax);
+        }
+
+        @Override
+        public int size() {
+            return points.size();
+        }
+
+        @Override
+        public double longitude(int id) {
+            return points.get(id).getLongitude();
+        }
+
+        @Override
+        public double latitude(int id) {
+            return points.get(id).getLatitude();
+        }
+
+        @Override
+        public String name(int id) {
+            return points.get(id).getCity();
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
     }
 }
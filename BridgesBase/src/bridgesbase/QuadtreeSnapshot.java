@@ -0,0 +1,412 @@
+package bridgesbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+import edu.sxu.cs.geometry.FixedPoint;
+import edu.sxu.cs.geometry.Geometry;
+
+// A built quadtree saved to disk so later runs can skip the download and the one-by-one inserts.
+// The file is memory-mapped on load and queried in place; no node or vertex objects are rebuilt.
+// The dataset key only says which request a snapshot answers, not when; callers that want the
+// data refreshed pass a maximum age, measured from the time the file was written.
+//
+// Point coordinates are stored as FixedPoint ints (1e-7 degree), half the size of doubles, so
+// answers can differ from the in-memory Quadtree only for points within the FixedPoint accuracy
+// bound of a query's edge. Rounding can move a point up to MAX_ERROR outside its node, so node
+// bounds are widened by NODE_SLACK when pruning; every answer is exact for the stored points.
+//
+// Layout (little-endian). The checksum covers everything from nodeCount to the end of the file,
+// so the counts and root bounds every query depends on are checked along with the body:
+//   int magic, int version, long datasetKey, long crc32(nodeCount .. end),
+//   int nodeCount, int pointCount, int nameByteCount, int reserved,
+//   double xMin, xMax, yMin, yMax                       (root bounds)
+//   int[2 * pointCount]      lon, lat per point as FixedPoint, in tree pre-order
+//   int[3 * nodeCount]       firstPoint, pointCount, firstChild (-1 for a leaf) per node
+//   int[pointCount + 1]      offsets of each name in the name bytes
+//   byte[nameByteCount]      UTF-8 names
+// Children are stored next to each other, so a node's four children are firstChild .. firstChild + 3.
+// Child bounds are not stored; they are recomputed by halving, exactly as Quadtree.subdivide does.
+
+public final class QuadtreeSnapshot implements SpatialIndex {
+
+    static final int MAGIC = 0x51545331;  // "QTS1"
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 72;
+    static final int CHECKSUM_START = 24;  // Everything but magic, version, key and the checksum itself
+    static final double NODE_SLACK = 2 * FixedPoint.MAX_ERROR;  // How far rounding can move a point out of its node
+
+    private final long datasetKey;
+    private final long checksum;
+    private final double xMin, xMax, yMin, yMax;
+    private final int nodeCount, pointCount;
+    private final IntBuffer points;
+    private final IntBuffer nodes;
+    private final IntBuffer nameOffsets;
+    private final ByteBuffer nameBytes;
+
+    private QuadtreeSnapshot(ByteBuffer buf) {
+        datasetKey = buf.getLong(8);
+        checksum = buf.getLong(16);
+        nodeCount = buf.getInt(24);
+        pointCount = buf.getInt(28);
+        int nameByteCount = buf.getInt(32);
+        xMin = buf.getDouble(40);
+        xMax = buf.getDouble(48);
+        yMin = buf.getDouble(56);
+        yMax = buf.getDouble(64);
+
+        int pos = HEADER_BYTES;
+        points = slice(buf, pos, 8L * pointCount).asIntBuffer();
+        pos += 8 * pointCount;
+        nodes = slice(buf, pos, 12L * nodeCount).asIntBuffer();
+        pos += 12 * nodeCount;
+        nameOffsets = slice(buf, pos, 4L * (pointCount + 1)).asIntBuffer();
+        pos += 4 * (pointCount + 1);
+        nameBytes = slice(buf, pos, nameByteCount);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, long length) {
+        return buf.slice(pos, (int) length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes a built quadtree to a snapshot file. The file is written to a
+     * temporary name first and then moved into place, so a crash never leaves
+     * a half-written snapshot behind. Coordinates are rounded to FixedPoint.
+     * @param tree The quadtree to save, with every point within 180 degrees
+     * @param datasetKey Identifies the data set the tree was built from
+     *   (see {@link #datasetKey(String, java.util.Map)})
+     * @param file Where to write the snapshot
+     * @throws IOException when the file cannot be written
+     */
+    public static void write(QuadtreeSearch.Quadtree tree, long datasetKey, Path file) throws IOException {
+        // Flatten the tree in pre-order so every node's points are one contiguous run
+        List<ExtendedOsmVertex> pointList = new ArrayList<>();
+        List<int[]> records = flatten(tree, pointList);
+
+        byte[][] names = new byte[pointList.size()][];
+        int nameByteCount = 0;
+        for (int i = 0; i < names.length; i++) {
+            String name = pointList.get(i).getCity();
+            names[i] = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+            nameByteCount += names[i].length;
+        }
+
+        int n = records.size(), m = pointList.size();
+        long size = (long) HEADER_BYTES + 8L * m + 12L * n + 4L * (m + 1) + nameByteCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Quadtree too large for a snapshot: " + size + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(datasetKey).putLong(0L);
+        buf.putInt(n).putInt(m).putInt(nameByteCount).putInt(0);
+        buf.putDouble(tree.xMin).putDouble(tree.xMax).putDouble(tree.yMin).putDouble(tree.yMax);
+        for (ExtendedOsmVertex p : pointList) {
+            buf.putInt(FixedPoint.fromDegrees(p.getLongitude())).putInt(FixedPoint.fromDegrees(p.getLatitude()));
+        }
+        for (int[] r : records) {
+            buf.putInt(r[0]).putInt(r[1]).putInt(r[2]);
+        }
+        int offset = 0;
+        for (byte[] name : names) {
+            buf.putInt(offset);
+            offset += name.length;
+        }
+        buf.putInt(offset);
+        for (byte[] name : names) {
+            buf.put(name);
+        }
+        buf.putLong(16, crc(buf, CHECKSUM_START));
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, buf.array());
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Children get four adjacent slots, reserved when their parent is visited,
+    // while points are appended in pre-order so each node's points stay contiguous.
+    private static List<int[]> flatten(QuadtreeSearch.Quadtree root, List<ExtendedOsmVertex> pointList) {
+        List<int[]> records = new ArrayList<>();
+        records.add(null);
+        flattenHelper(root, 0, records, pointList);
+        return records;
+    }
+
+    private static void flattenHelper(QuadtreeSearch.Quadtree node, int index, List<int[]> records,
+                                      List<ExtendedOsmVertex> pointList) {
+        int first = pointList.size();
+        for (int i = 0; i < node.cities.size(); i++) {
+            pointList.add(node.points.get(node.cities.get(i)));
+        }
+        int firstChild = -1;
+        if (node.children[0] != null) {
+            firstChild = records.size();
+            for (int c = 0; c < 4; c++) records.add(null);
+            for (int c = 0; c < 4; c++) {
+                flattenHelper(node.children[c], firstChild + c, records, pointList);
+            }
+        }
+        records.set(index, new int[] {first, node.cities.size(), firstChild});
+    }
+
+    /**
+     * Maps a snapshot file into memory and checks it. A file written by a
+     * different format version, for a different data set, or whose checksum
+     * does not match its contents is rejected.
+     * @param file The snapshot to load
+     * @param datasetKey The key of the data set the caller expects
+     * @return The loaded snapshot, ready to query
+     * @throws IOException when the file is missing, stale or corrupt
+     */
+    public static QuadtreeSnapshot load(Path file, long datasetKey) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " has an invalid size");
+            }
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Snapshot " + file + " is not a quadtree snapshot");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Snapshot " + file + " has format version " + buf.getInt(4) + ", expected " + VERSION);
+        }
+        if (buf.getLong(8) != datasetKey) {
+            throw new IOException("Snapshot " + file + " was built from a different data set");
+        }
+        long expectedSize = (long) HEADER_BYTES + 8L * buf.getInt(28) + 12L * buf.getInt(24)
+                + 4L * (buf.getInt(28) + 1) + buf.getInt(32);
+        if (buf.getInt(24) < 1 || buf.getInt(28) < 0 || buf.getInt(32) < 0 || expectedSize != buf.capacity()) {
+            throw new IOException("Snapshot " + file + " is truncated or corrupt");
+        }
+        if (crc(buf, CHECKSUM_START) != buf.getLong(16)) {
+            throw new IOException("Snapshot " + file + " failed its checksum");
+        }
+        return new QuadtreeSnapshot(buf);
+    }
+
+    /**
+     * Like {@link #load(Path, long)}, but also rejects a snapshot whose file
+     * was last modified more than maxAge ago, so data that changes upstream
+     * is downloaded again even when the request for it has not changed.
+     * @param maxAge How old a snapshot may be and still be used
+     * @throws IOException when the file is missing, stale or corrupt
+     */
+    public static QuadtreeSnapshot load(Path file, long datasetKey, Duration maxAge) throws IOException {
+        Instant written = Files.getLastModifiedTime(file).toInstant();
+        if (written.plus(maxAge).isBefore(Instant.now())) {
+            throw new IOException("Snapshot " + file + " was written " + written + ", more than " + maxAge + " ago");
+        }
+        return load(file, datasetKey);
+    }
+
+    private static long crc(ByteBuffer buf, int from) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(from, buf.capacity() - from));
+        return crc.getValue();
+    }
+
+    /**
+     * Builds a key that identifies a data set request, for example the
+     * parameters passed to getUSCitiesData. A snapshot is only reused when
+     * the key it was written with matches.
+     */
+    public static long datasetKey(String source, java.util.Map<String, String> params) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        new java.util.TreeMap<>(params).forEach((k, v) -> {
+            crc.update(0);
+            crc.update(k.getBytes(StandardCharsets.UTF_8));
+            crc.update('=');
+            crc.update(v.getBytes(StandardCharsets.UTF_8));
+        });
+        return crc.getValue();
+    }
+
+    public long getDatasetKey() {
+        return datasetKey;
+    }
+
+    /**
+     * Identifies the contents of this snapshot. Two snapshots with the same
+     * version hold the same points in the same order, so their ids agree.
+     */
+    @Override
+    public long version() {
+        return checksum;
+    }
+
+    @Override
+    public int size() {
+        return pointCount;
+    }
+
+    @Override
+    public double longitude(int id) {
+        return FixedPoint.toDegrees(points.get(2 * id));
+    }
+
+    @Override
+    public double latitude(int id) {
+        return FixedPoint.toDegrees(points.get(2 * id + 1));
+    }
+
+    @Override
+    public String name(int id) {
+        int from = nameOffsets.get(id);
+        int to = nameOffsets.get(id + 1);
+        byte[] bytes = new byte[to - from];
+        nameBytes.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the ids of all points within a radius of (qx, qy), using the
+     * same pruning as Quadtree.pointsWithinRadius.
+     */
+    @Override
+    public int[] idsWithinRadius(double qx, double qy, double radius) {
+        IdList results = new IdList();
+        pointsWithinRadiusHelper(0, xMin, xMax, yMin, yMax, qx, qy, radius * radius, results);
+        return results.toArray();
+    }
+
+    private void pointsWithinRadiusHelper(int node, double nxMin, double nxMax, double nyMin, double nyMax,
+                                          double qx, double qy, double radiusSq, IdList results) {
+        // Skip nodes whose rectangle, widened by the rounding slack, lies entirely outside the circle
+        if (Geometry.squareDistanceToRectangle(qx, qy, nxMin - NODE_SLACK, nxMax + NODE_SLACK,
+                                               nyMin - NODE_SLACK, nyMax + NODE_SLACK) > radiusSq) return;
+
+        // Check each point in this node
+        int first = nodes.get(3 * node);
+        int end = first + nodes.get(3 * node + 1);
+        for (int id = first; id < end; id++) {
+            double ddx = longitude(id) - qx;
+            double ddy = latitude(id) - qy;
+            if (ddx * ddx + ddy * ddy <= radiusSq) {
+                results.add(id);
+            }
+        }
+
+        // Recurse into children, in the same quadrant order as Quadtree.subdivide
+        int child = nodes.get(3 * node + 2);
+        if (child >= 0) {
+            double xMid = (nxMin + nxMax) / 2;
+            double yMid = (nyMin + nyMax) / 2;
+            pointsWithinRadiusHelper(child, nxMin, xMid, nyMin, yMid, qx, qy, radiusSq, results);
+            pointsWithinRadiusHelper(child + 1, xMid, nxMax, nyMin, yMid, qx, qy, radiusSq, results);
+            pointsWithinRadiusHelper(child + 2, nxMin, xMid, yMid, nyMax, qx, qy, radiusSq, results);
+            pointsWithinRadiusHelper(child + 3, xMid, nxMax, yMid, nyMax, qx, qy, radiusSq, results);
+        }
+    }
+
+    @Override
+    public int[] idsInWindow(double wxMin, double wxMax, double wyMin, double wyMax) {
+        IdList results = new IdList();
+        pointsInWindowHelper(0, xMin, xMax, yMin, yMax, wxMin, wxMax, wyMin, wyMax, results);
+        return results.toArray();
+    }
+
+    private void pointsInWindowHelper(int node, double nxMin, double nxMax, double nyMin, double nyMax,
+                                      double wxMin, double wxMax, double wyMin, double wyMax, IdList results) {
+        if (nxMin - NODE_SLACK > wxMax || nxMax + NODE_SLACK < wxMin
+                || nyMin - NODE_SLACK > wyMax || nyMax + NODE_SLACK < wyMin) return;
+
+        int first = nodes.get(3 * node);
+        int end = first + nodes.get(3 * node + 1);
+        for (int id = first; id < end; id++) {
+            double x = longitude(id);
+            double y = latitude(id);
+            if (x >= wxMin && x <= wxMax && y >= wyMin && y <= wyMax) {
+                results.add(id);
+            }
+        }
+
+        int child = nodes.get(3 * node + 2);
+        if (child >= 0) {
+            double xMid = (nxMin + nxMax) / 2;
+            double yMid = (nyMin + nyMax) / 2;
+            pointsInWindowHelper(child, nxMin, xMid, nyMin, yMid, wxMin, wxMax, wyMin, wyMax, results);
+            pointsInWindowHelper(child + 1, xMid, nxMax, nyMin, yMid, wxMin, wxMax, wyMin, wyMax, results);
+            pointsInWindowHelper(child + 2, nxMin, xMid, yMid, nyMax, wxMin, wxMax, wyMin, wyMax, results);
+            pointsInWindowHelper(child + 3, xMid, nxMax, yMid, nyMax, wxMin, wxMax, wyMin, wyMax, results);
+        }
+    }
+
+    /**
+     * Nodes are visited best-first by their distance from the query point,
+     * so the search stops as soon as no unvisited node can hold a closer point.
+     */
+    @Override
+    public int[] nearest(double qx, double qy, int k) {
+        if (k <= 0 || pointCount == 0) return new int[0];
+        k = Math.min(k, pointCount);
+
+        // Max-heap of the best candidates so far, farthest on top
+        PriorityQueue<double[]> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+        // Min-heap of nodes to visit: {distSq, node, xMin, xMax, yMin, yMax}
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        queue.add(new double[] {0, 0, xMin, xMax, yMin, yMax});
+
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            if (best.size() == k && entry[0] > best.peek()[0]) break;
+            int node = (int) entry[1];
+
+            int first = nodes.get(3 * node);
+            int end = first + nodes.get(3 * node + 1);
+            for (int id = first; id < end; id++) {
+                double dx = longitude(id) - qx;
+                double dy = latitude(id) - qy;
+                double distSq = dx * dx + dy * dy;
+                if (best.size() < k) {
+                    best.add(new double[] {distSq, id});
+                } else if (distSq < best.peek()[0]) {
+                    best.poll();
+                    best.add(new double[] {distSq, id});
+                }
+            }
+
+            int child = nodes.get(3 * node + 2);
+            if (child >= 0) {
+                double xMid = (entry[2] + entry[3]) / 2;
+                double yMid = (entry[4] + entry[5]) / 2;
+                queue.add(nodeEntry(child, entry[2], xMid, entry[4], yMid, qx, qy));
+                queue.add(nodeEntry(child + 1, xMid, entry[3], entry[4], yMid, qx, qy));
+                queue.add(nodeEntry(child + 2, entry[2], xMid, yMid, entry[5], qx, qy));
+                queue.add(nodeEntry(child + 3, xMid, entry[3], yMid, entry[5], qx, qy));
+            }
+        }
+
+        int[] ids = new int[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = (int) best.poll()[1];
+        }
+        return ids;
+    }
+
+    private static double[] nodeEntry(int node, double nxMin, double nxMax, double nyMin, double nyMax,
+                                      double qx, double qy) {
+        double distSq = Geometry.squareDistanceToRectangle(qx, qy, nxMin - NODE_SLACK, nxMax + NODE_SLACK,
+                                                           nyMin - NODE_SLACK, nyMax + NODE_SLACK);
+        return new double[] {distSq, node, nxMin, nxMax, nyMin, nyMax};
+    }
+}
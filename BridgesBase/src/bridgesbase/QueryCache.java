@@ -0,0 +1,182 @@
+package bridgesbase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded LRU cache of radius and kNN results for queries centered on a city in the index.
+// Keys are normalized to (query kind, city id, quantized radius or k) so repeated
+// questions like "50 miles around Chicago" are answered without walking the tree again.
+// Results are stored as the int id arrays the index returns and are shared between callers,
+// so they must not be modified. Everything is dropped when the cache is used with a different
+// index or the index version changes.
+//
+// Keys are spread over up to STRIPES independent LRU maps, each behind its own ReentrantLock,
+// so concurrent queries for different keys rarely wait for each other and a waiting virtual
+// thread does not pin its carrier. Eviction is least recently used within a stripe.
+
+public class QueryCache {
+
+    // Radii are rounded to this step before the query runs, so nearby radii share one entry
+    public static final double RADIUS_STEP_MILES = 0.01;
+    static final int STRIPES = 16;
+
+    private record Key(boolean nearest, int pointId, long param) { }
+
+    // One lock, one LRU map and the index its entries came from
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<Key, int[]> entries;
+        SpatialIndex index;
+        long version;
+
+        Stripe(int capacity) {
+            // Access order, so the eldest entry is always the least recently used
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        void checkVersion(SpatialIndex index) {
+            if (index != this.index || index.version() != version) {
+                entries.clear();
+                this.index = index;
+                version = index.version();
+            }
+        }
+    }
+
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QueryCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        // Split the capacity so the stripes together hold exactly capacity entries
+        stripes = new Stripe[Math.min(STRIPES, capacity)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(capacity / stripes.length + (i < capacity % stripes.length ? 1 : 0));
+        }
+    }
+
+    /**
+     * Finds the cities within a radius of a city in the index.
+     * @param index The index to query on a miss
+     * @param pointId Id of the city at the center
+     * @param radiusInMiles The radius, rounded to RADIUS_STEP_MILES
+     * @return Ids of the cities within the radius
+     */
+    public int[] pointsWithinRadius(SpatialIndex index, int pointId, double radiusInMiles) {
+        long steps = Math.round(radiusInMiles / RADIUS_STEP_MILES);
+        Key key = new Key(false, pointId, steps);
+        int[] ids = lookup(index, key);
+        if (ids == null) {
+            long seen = index.version();
+            double radiusInDegrees = steps * RADIUS_STEP_MILES / 69.0;
+            ids = index.idsWithinRadius(index.longitude(pointId), index.latitude(pointId), radiusInDegrees);
+            store(index, seen, key, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the k cities nearest to a city in the index, closest first.
+     */
+    public int[] nearest(SpatialIndex index, int pointId, int k) {
+        Key key = new Key(true, pointId, k);
+        int[] ids = lookup(index, key);
+        if (ids == null) {
+            long seen = index.version();
+            ids = index.nearest(index.longitude(pointId), index.latitude(pointId), k);
+            store(index, seen, key, ids);
+        }
+        return ids;
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hashCode();
+        return stripes[Math.floorMod(h ^ (h >>> 16), stripes.length)];
+    }
+
+    // The query itself runs outside the lock; two threads missing on the same key
+    // both compute it and the second store simply replaces the first. A result
+    // computed while the index changed underneath it is not stored.
+    private int[] lookup(SpatialIndex index, Key key) {
+        Stripe stripe = stripe(key);
+        int[] ids;
+        stripe.lock.lock();
+        try {
+            stripe.checkVersion(index);
+            ids = stripe.entries.get(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (ids == null) misses.increment();
+        else hits.increment();
+        return ids;
+    }
+
+    private void store(SpatialIndex index, long seen, Key key, int[] ids) {
+        Stripe stripe = stripe(key);
+        stripe.lock.lock();
+        try {
+            stripe.checkVersion(index);
+            if (stripe.version == seen) {
+                stripe.entries.put(key, ids);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public void invalidate() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.entries.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d of %d entries",
+                hits(), misses(), 100 * hitRate(), size(), capacity);
+    }
+}
@@ -0,0 +1,171 @@
+package bridgesbase;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load-test client for QueryService. Starts a number of concurrent clients on virtual threads,
+// each sending queries for a fixed time, then reports throughput and latency percentiles.
+// Half the queries are radius and kNN queries around random points in the continental U.S.;
+// the other half name a city (/city, and /radius and /knn by name), so they go through the
+// service's QueryCache. The city names are collected from the service before the clock starts.
+
+public class QueryLoadTest {
+
+    /**
+     * @param args port, concurrent clients, seconds to run
+     *   (defaults: QueryService.DEFAULT_PORT, 64, 10)
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : QueryService.DEFAULT_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        run(port, clients, seconds);
+    }
+
+    public static void run(int port, int clients, int seconds) throws InterruptedException {
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        long[][] latencies = new long[clients][];
+        long[][] namedLatencies = new long[clients][];
+        AtomicLong errors = new AtomicLong();
+        SplittableRandom seed = new SplittableRandom(42);
+        List<String> names = cityNames(http, port, seed.split());
+        if (names.isEmpty()) {
+            System.err.println("No city names found; sending only latitude/longitude queries");
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                SplittableRandom rand = seed.split();
+                pool.submit(() -> {
+                    long[][] times = runClient(http, port, deadline, rand, names, errors);
+                    latencies[client] = times[0];
+                    namedLatencies[client] = times[1];
+                });
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] raw = merge(latencies);
+        long[] named = merge(namedLatencies);
+        long[] all = merge(new long[][] {raw, named});
+        int total = all.length;
+
+        System.out.printf("%d clients, %d requests in %.1f s, %d errors%n", clients, total, elapsed, errors.get());
+        System.out.printf("Throughput: %.0f requests/s%n", total / elapsed);
+        printLatency("Latency", all);
+        printLatency("  lat/lon queries", raw);
+        printLatency("  named-city queries", named);
+    }
+
+    // Merges every client's latencies, sorted, to get the overall percentiles
+    private static long[] merge(long[][] latencies) {
+        int total = 0;
+        for (long[] l : latencies) total += l.length;
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static void printLatency(String label, long[] sorted) {
+        if (sorted.length == 0) return;
+        System.out.printf("%s p50 %.3f ms, p99 %.3f ms, max %.3f ms (%d requests)%n", label,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6, sorted.length);
+    }
+
+    // Names of cities near random points, taken from the first column of /knn responses
+    private static List<String> cityNames(HttpClient http, int port, SplittableRandom rand) throws InterruptedException {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < 50; i++) {
+            String path = "/knn?lat=" + rand.nextDouble(24.396308, 49.384358)
+                    + "&lon=" + rand.nextDouble(-125.0, -66.93457) + "&k=10";
+            try {
+                HttpResponse<String> response = http.send(request(port, path), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) continue;
+                for (String line : response.body().split("\n")) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) names.add(line.substring(0, tab));
+                }
+            } catch (IOException e) {
+                System.err.println("Could not fetch city names: " + e.getMessage());
+                break;
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static HttpRequest request(int port, String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+    }
+
+    // Returns the latencies of the lat/lon queries and of the named-city queries
+    private static long[][] runClient(HttpClient http, int port, long deadline, SplittableRandom rand,
+                                      List<String> names, AtomicLong errors) {
+        long[][] times = {new long[1024], new long[1024]};
+        int[] count = new int[2];
+        while (System.nanoTime() < deadline) {
+            boolean named = !names.isEmpty() && rand.nextBoolean();
+            String path;
+            if (named) {
+                String name = "name=" + URLEncoder.encode(names.get(rand.nextInt(names.size())), StandardCharsets.UTF_8);
+                path = switch (rand.nextInt(3)) {
+                    case 0 -> "/city?" + name;
+                    case 1 -> "/radius?" + name + "&miles=" + 10 * rand.nextInt(1, 10);
+                    default -> "/knn?" + name + "&k=" + rand.nextInt(1, 20);
+                };
+            } else {
+                // Same U.S. bounds as the QuadtreeSearch viewport
+                double lon = rand.nextDouble(-125.0, -66.93457);
+                double lat = rand.nextDouble(24.396308, 49.384358);
+                path = rand.nextBoolean()
+                        ? "/radius?lat=" + lat + "&lon=" + lon + "&miles=" + rand.nextInt(10, 100)
+                        : "/knn?lat=" + lat + "&lon=" + lon + "&k=" + rand.nextInt(1, 20);
+            }
+            HttpRequest request = request(port, path);
+
+            long t0 = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) errors.incrementAndGet();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            int kind = named ? 1 : 0;
+            if (count[kind] == times[kind].length) times[kind] = Arrays.copyOf(times[kind], count[kind] * 2);
+            times[kind][count[kind]++] = System.nanoTime() - t0;
+        }
+        return new long[][] {Arrays.copyOf(times[0], count[0]), Arrays.copyOf(times[1], count[1])};
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
@@ -0,0 +1,234 @@
+package bridgesbase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves city lookups from a loaded quadtree snapshot over HTTP on localhost.
+// Each request runs on its own virtual thread and nothing is rendered, so many
+// clients can query at once instead of taking turns at the QuadtreeSearch prompt.
+//
+//   GET /city?name=Chicago                      one line for the named city
+//   GET /radius?name=Chicago&miles=50           cities within the radius
+//   GET /radius?lat=41.88&lon=-87.63&miles=50
+//   GET /knn?name=Chicago&k=5                   the k nearest cities, closest first
+//   GET /knn?lat=41.88&lon=-87.63&k=5
+//   GET /stats                                  query cache hit and miss counts
+//
+// Queries centered on a named city go through a QueryCache; queries at a raw latitude and
+// longitude always go to the index.
+//
+// Responses are plain text, one city per line: name, latitude and longitude separated by tabs.
+// A missing or invalid parameter (a radius outside 0 .. MAX_MILES, a k outside 1 .. MAX_K, a
+// coordinate that is not a finite number) gets a 400 response, and an unknown city name a 404.
+//
+// Headers and body go out as separate writes, so without TCP_NODELAY each small response waits
+// out the client's delayed ACK (about 40 ms). main turns it on; a program that embeds the
+// service should run with -Dsun.net.httpserver.nodelay=true, which the JDK server reads once,
+// before the first server is created.
+
+public class QueryService {
+
+    public static final int DEFAULT_PORT = 8087;
+    public static final int MAX_K = 1000;  // Largest k a /knn request may ask for
+    public static final double MAX_MILES = 250;  // Largest radius a /radius request may ask for
+
+    private final SpatialIndex index;
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final QueryCache cache;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public QueryService(SpatialIndex index, QueryCache cache) {
+        this.index = index;
+        this.cache = cache;
+        // Keep the first city with each name, the same one QuadtreeSearch picks
+        for (int id = 0; id < index.size(); id++) {
+            idsByName.putIfAbsent(index.name(id).toLowerCase(Locale.ROOT), id);
+        }
+    }
+
+    /**
+     * Starts listening on the loopback interface only.
+     * @param port The port to listen on, or 0 for any free port
+     * @return The port actually bound
+     * @throws IOException when the port cannot be bound
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/city", handler(this::city));
+        server.createContext("/radius", handler(this::radius));
+        server.createContext("/knn", handler(this::knn));
+        server.createContext("/stats", handler(this::stats));
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.close();
+            server = null;
+        }
+    }
+
+    private String city(Map<String, String> params) {
+        int id = queryCity(params);
+        return line(new StringBuilder(), id).toString();
+    }
+
+    private String radius(Map<String, String> params) {
+        double radiusInMiles = number(params, "miles");
+        if (!(radiusInMiles >= 0 && radiusInMiles <= MAX_MILES)) {
+            throw new IllegalArgumentException("Radius must be from 0 to " + MAX_MILES + " miles: " + params.get("miles"));
+        }
+        if (params.containsKey("name")) {
+            return lines(cache.pointsWithinRadius(index, queryCity(params), radiusInMiles));
+        }
+        double radiusInDegrees = radiusInMiles / 69.0;  // Same conversion as QuadtreeSearch
+        return lines(index.idsWithinRadius(coordinate(params, "lon"), coordinate(params, "lat"), radiusInDegrees));
+    }
+
+    private String knn(Map<String, String> params) {
+        double count = number(params, "k");
+        if (!(count >= 1 && count <= MAX_K) || count != Math.floor(count)) {
+            throw new IllegalArgumentException("k must be a whole number from 1 to " + MAX_K + ": " + params.get("k"));
+        }
+        int k = (int) count;
+        if (params.containsKey("name")) {
+            return lines(cache.nearest(index, queryCity(params), k));
+        }
+        return lines(index.nearest(coordinate(params, "lon"), coordinate(params, "lat"), k));
+    }
+
+    private String stats(Map<String, String> params) {
+        return "cache\t" + cache + "\n";
+    }
+
+    private int queryCity(Map<String, String> params) {
+        String name = params.get("name");
+        if (name == null) {
+            throw new IllegalArgumentException("Missing parameter: name");
+        }
+        Integer id = idsByName.get(name.toLowerCase(Locale.ROOT));
+        if (id == null) {
+            throw new NotFoundException("City not found in the dataset: " + name);
+        }
+        return id;
+    }
+
+    private static double number(Map<String, String> params, String key) {
+        String value = params.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + key);
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + key + "=" + value);
+        }
+    }
+
+    private static double coordinate(Map<String, String> params, String key) {
+        double value = number(params, key);
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Not a finite coordinate: " + key + "=" + params.get(key));
+        }
+        return value;
+    }
+
+    private String lines(int[] ids) {
+        StringBuilder sb = new StringBuilder();
+        for (int id : ids) {
+            line(sb, id);
+        }
+        return sb.toString();
+    }
+
+    private StringBuilder line(StringBuilder sb, int id) {
+        return sb.append(index.name(id)).append('\t')
+                 .append(index.latitude(id)).append('\t')
+                 .append(index.longitude(id)).append('\n');
+    }
+
+    private static HttpHandler handler(java.util.function.Function<Map<String, String>, String> query) {
+        return exchange -> {
+            try (exchange) {
+                int status = 200;
+                String body;
+                try {
+                    body = query.apply(parseQuery(exchange));
+                } catch (NotFoundException e) {
+                    status = 404;
+                    body = e.getMessage() + "\n";
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    body = e.getMessage() + "\n";
+                }
+                respond(exchange, status, body);
+            }
+        };
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                       URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static class NotFoundException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Serves the snapshot saved by QuadtreeSearch. Run QuadtreeSearch once
+     * first so that the snapshot exists, and again once it is older than
+     * QuadtreeSearch.SNAPSHOT_MAX_AGE.
+     * @param args Optional port number
+     */
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        QuadtreeSnapshot index = QuadtreeSnapshot.load(QuadtreeSearch.SNAPSHOT_FILE,
+                QuadtreeSnapshot.datasetKey(QuadtreeSearch.DATASET, new HashMap<>()), QuadtreeSearch.SNAPSHOT_MAX_AGE);
+        QueryService service = new QueryService(index, new QueryCache(10_000));
+        port = service.start(port);
+        System.out.println("Serving " + index.size() + " cities on http://localhost:" + port + "/");
+    }
+}
@@ -0,0 +1,56 @@
+package bridgesbase;
+
+import java.util.Arrays;
+
+// Sorting by primitive keys without boxing, for building the indexes. order() is a stable
+// least-significant-digit radix sort, one byte per pass; a pass is skipped when every key has
+// the same byte there, so keys that use only their low bits take only a few passes.
+
+final class RadixSort {
+
+    private RadixSort() {
+    }
+
+    /**
+     * @return The positions of keys in ascending order of key, comparing
+     *   keys as unsigned; equal keys keep their original order
+     */
+    static int[] order(long[] keys) {
+        int n = keys.length;
+        int[] order = new int[n], nextOrder = new int[n];
+        long[] k = keys.clone(), nextK = new long[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+
+        int[] start = new int[257];
+        for (int shift = 0; shift < 64 && n > 1; shift += 8) {
+            Arrays.fill(start, 0);
+            for (int i = 0; i < n; i++) {
+                start[(int) (k[i] >>> shift & 0xFF) + 1]++;
+            }
+            if (start[(int) (k[0] >>> shift & 0xFF) + 1] == n) continue;  // Nothing to reorder
+            for (int d = 0; d < 256; d++) {
+                start[d + 1] += start[d];
+            }
+            for (int i = 0; i < n; i++) {
+                int at = start[(int) (k[i] >>> shift & 0xFF)]++;
+                nextK[at] = k[i];
+                nextOrder[at] = order[i];
+            }
+            long[] tk = k;
+            k = nextK;
+            nextK = tk;
+            int[] to = order;
+            order = nextOrder;
+            nextOrder = to;
+        }
+        return order;
+    }
+
+    /**
+     * @return A key that sorts as unsigned in the same order as the double
+     */
+    static long key(double d) {
+        long bits = Double.doubleToLongBits(d);
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,279 @@
+package bridgesbase;
+
+import bridges.base.Edge;
+import bridges.base.GraphAdjList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+// Runs large numbers of random walks over a graph for Monte Carlo estimates such as hitting
+// times and visit frequencies. The graph is copied once into flat arrays (compressed sparse
+// rows), and each vertex gets an alias table so choosing the next edge, with probability
+// proportional to its weight, takes constant time. Walks run in batches; each batch has its
+// own SplittableRandom split from the seed, so results do not depend on thread count. One task
+// per processor runs every n-th batch into its own counts, so memory grows with threads times
+// vertices, not with the number of walks. Only aggregate counts are kept, never the paths.
+
+public class RandomWalkEngine {
+
+    static final int BATCH_SIZE = 4096;  // Walks per random number generator
+
+    /** Every outgoing edge equally likely, like GraphExample.randomWalk */
+    public static final ToDoubleFunction<Edge<String, Double>> UNIFORM = e -> 1.0;
+    /** Edges chosen in proportion to their data; edges without data get weight 1 */
+    public static final ToDoubleFunction<Edge<String, Double>> EDGE_DATA =
+            e -> e.getEdgeData() == null ? 1.0 : e.getEdgeData();
+    /** Edges chosen in inverse proportion to their data, such as a length, so shorter edges are likelier */
+    public static final ToDoubleFunction<Edge<String, Double>> INVERSE_EDGE_DATA =
+            e -> e.getEdgeData() == null ? 1.0 : 1.0 / e.getEdgeData();
+
+    private final String[] names;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final int[] offsets;  // Edges of vertex v are slots offsets[v] .. offsets[v + 1] - 1
+    private final int[] targets;
+    private final double[] probability;  // Alias table: keep the slot with this probability...
+    private final int[] alias;  // ...otherwise take this slot instead
+
+    /**
+     * Copies a graph into the walk layout. Edge data is used as the edge
+     * weight (see EDGE_DATA).
+     */
+    public RandomWalkEngine(GraphAdjList<String, String, Double> graph) {
+        this(graph, EDGE_DATA);
+    }
+
+    /**
+     * Copies a graph into the walk layout.
+     * @param graph The graph to walk
+     * @param weight Weight of each edge; a walk leaves a vertex along each
+     *   outgoing edge with probability proportional to its weight
+     */
+    public RandomWalkEngine(GraphAdjList<String, String, Double> graph, ToDoubleFunction<Edge<String, Double>> weight) {
+        names = graph.getVertices().keySet().toArray(new String[0]);
+        for (int v = 0; v < names.length; v++) {
+            ids.put(names[v], v);
+        }
+
+        List<int[]> edgeTargets = new ArrayList<>();
+        List<double[]> edgeWeights = new ArrayList<>();
+        offsets = new int[names.length + 1];
+        for (int v = 0; v < names.length; v++) {
+            List<Integer> to = new ArrayList<>();
+            List<Double> w = new ArrayList<>();
+            Iterable<Edge<String, Double>> edges = graph.outgoingEdgeSetOf(names[v]);
+            if (edges != null) {
+                for (Edge<String, Double> e : edges) {
+                    to.add(ids.get(e.getTo()));
+                    w.add(weight.applyAsDouble(e));
+                }
+            }
+            edgeTargets.add(to.stream().mapToInt(Integer::intValue).toArray());
+            edgeWeights.add(w.stream().mapToDouble(Double::doubleValue).toArray());
+            offsets[v + 1] = offsets[v] + to.size();
+        }
+
+        targets = new int[offsets[names.length]];
+        probability = new double[targets.length];
+        alias = new int[targets.length];
+        for (int v = 0; v < names.length; v++) {
+            System.arraycopy(edgeTargets.get(v), 0, targets, offsets[v], edgeTargets.get(v).length);
+            buildAliasTable(edgeWeights.get(v), offsets[v]);
+        }
+    }
+
+    // Vose's alias method: split the weights into equal-width columns, each holding
+    // at most two slots, so one uniform draw picks a column and a second picks the slot
+    private void buildAliasTable(double[] weights, int base) {
+        int n = weights.length;
+        if (n == 0) return;
+        double total = 0;
+        for (double w : weights) {
+            if (w < 0 || Double.isNaN(w)) {
+                throw new IllegalArgumentException("Edge weights must not be negative: " + w);
+            }
+            total += w;
+        }
+
+        double[] scaled = new double[n];
+        int[] small = new int[n], large = new int[n];
+        int ns = 0, nl = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total > 0 ? weights[i] * n / total : 1.0;
+            if (scaled[i] < 1.0) small[ns++] = i;
+            else large[nl++] = i;
+        }
+        while (ns > 0 && nl > 0) {
+            int s = small[--ns], l = large[--nl];
+            probability[base + s] = scaled[s];
+            alias[base + s] = l;
+            scaled[l] = scaled[l] + scaled[s] - 1.0;
+            if (scaled[l] < 1.0) small[ns++] = l;
+            else large[nl++] = l;
+        }
+        // Whatever is left is full up to rounding error
+        while (nl > 0) probability[base + large[--nl]] = 1.0;
+        while (ns > 0) probability[base + small[--ns]] = 1.0;
+    }
+
+    public int vertexCount() {
+        return names.length;
+    }
+
+    /**
+     * @return The vertex id for a name, or -1 if the graph has no such vertex
+     */
+    public int vertexId(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+
+    public String vertexName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Picks the next vertex of a walk.
+     * @return A neighbor of v chosen in proportion to edge weight, or -1 if v has no outgoing edges
+     */
+    int step(int v, SplittableRandom rand) {
+        int degree = offsets[v + 1] - offsets[v];
+        if (degree == 0) return -1;
+        int slot = rand.nextInt(degree);
+        if (rand.nextDouble() >= probability[offsets[v] + slot]) {
+            slot = alias[offsets[v] + slot];
+        }
+        return targets[offsets[v] + slot];
+    }
+
+    /**
+     * Runs many independent walks and totals what they did. A walk ends when
+     * it reaches the target, reaches a vertex with no outgoing edges, or has
+     * taken maxSteps steps.
+     * @param start Vertex id every walk starts from
+     * @param target Vertex id that ends a walk, or -1 to always walk maxSteps steps
+     * @param walks Number of walks
+     * @param maxSteps Step limit per walk
+     * @param seed Seed for the random numbers; the same seed gives the same result
+     */
+    public WalkStats walk(int start, int target, long walks, int maxSteps, long seed) {
+        if (start < 0 || start >= names.length) {
+            throw new IllegalArgumentException("No such start vertex: " + start);
+        }
+        if (target < -1 || target >= names.length) {
+            throw new IllegalArgumentException("No such target vertex: " + target);
+        }
+        if (walks < 0) {
+            throw new IllegalArgumentException("Number of walks must not be negative: " + walks);
+        }
+        if (maxSteps < 0) {
+            throw new IllegalArgumentException("Step limit must not be negative: " + maxSteps);
+        }
+        int batches = (int) ((walks + BATCH_SIZE - 1) / BATCH_SIZE);
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[batches];
+        for (int b = 0; b < batches; b++) {
+            randoms[b] = root.split();
+        }
+
+        // Batch b always uses randoms[b], and counts are summed exactly, so the
+        // split of batches between tasks does not change the result
+        int tasks = Math.max(1, Math.min(batches, Runtime.getRuntime().availableProcessors()));
+        List<Tally> tallies = IntStream.range(0, tasks).parallel()
+                .mapToObj(t -> {
+                    Tally tally = new Tally(names.length);
+                    for (int b = t; b < batches; b += tasks) {
+                        long count = Math.min(BATCH_SIZE, walks - (long) b * BATCH_SIZE);
+                        walkBatch(start, target, count, maxSteps, randoms[b], tally);
+                    }
+                    return tally;
+                })
+                .toList();
+
+        Tally total = tallies.get(0);
+        for (int t = 1; t < tallies.size(); t++) {
+            total.add(tallies.get(t));
+        }
+        return new WalkStats(total.visits, total.walks, total.hits, total.hitSteps, total.stuck);
+    }
+
+    private void walkBatch(int start, int target, long walks, int maxSteps, SplittableRandom rand, Tally tally) {
+        long[] visits = tally.visits;
+        long hits = 0, hitSteps = 0, stuck = 0;
+        for (long w = 0; w < walks; w++) {
+            int v = start;
+            visits[v]++;
+            int steps = 0;
+            while (v != target && steps < maxSteps) {
+                v = step(v, rand);
+                if (v < 0) break;
+                visits[v]++;
+                steps++;
+            }
+            if (v < 0) {
+                stuck++;
+            } else if (v == target) {
+                hits++;
+                hitSteps += steps;
+            }
+        }
+        tally.walks += walks;
+        tally.hits += hits;
+        tally.hitSteps += hitSteps;
+        tally.stuck += stuck;
+    }
+
+    // Running totals for the batches of one task; see WalkStats for the fields
+    private static final class Tally {
+        final long[] visits;
+        long walks, hits, hitSteps, stuck;
+
+        Tally(int vertexCount) {
+            visits = new long[vertexCount];
+        }
+
+        void add(Tally other) {
+            for (int v = 0; v < visits.length; v++) {
+                visits[v] += other.visits[v];
+            }
+            walks += other.walks;
+            hits += other.hits;
+            hitSteps += other.hitSteps;
+            stuck += other.stuck;
+        }
+    }
+
+    /**
+     * Totals over a set of walks.
+     * @param visits How many times each vertex was occupied, counting each walk's start
+     * @param walks Number of walks
+     * @param hits Walks that reached the target
+     * @param hitSteps Steps taken by the walks that reached the target, summed
+     * @param stuck Walks that ended at a vertex with no outgoing edges
+     */
+    public record WalkStats(long[] visits, long walks, long hits, long hitSteps, long stuck) {
+
+        /**
+         * Average number of steps to reach the target, over the walks that reached it.
+         */
+        public double meanHittingTime() {
+            return hits == 0 ? Double.NaN : (double) hitSteps / hits;
+        }
+
+        public double hitFraction() {
+            return walks == 0 ? 0 : (double) hits / walks;
+        }
+
+        /**
+         * Share of all occupied positions that were at vertex v.
+         */
+        public double visitFrequency(int v) {
+            long total = 0;
+            for (long c : visits) total += c;
+            return total == 0 ? 0 : (double) visits[v] / total;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package bridgesbase;
+
+import bridges.data_src_dependent.OsmData;
+import bridges.data_src_dependent.OsmEdge;
+import bridges.data_src_dependent.OsmVertex;
+import edu.sxu.cs.geometry.Geometry;
+import edu.sxu.cs.geometry.Line;
+import edu.sxu.cs.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+// Snaps raw GPS points to the nearest road. The road segments (OSM edges) are packed into an
+// R-tree with Sort-Tile-Recursive bulk loading: segments are sorted into vertical slices by the
+// x of their centers, each slice is sorted by y and cut into full nodes, and the same packing is
+// repeated on the nodes until one root is left. Nearest-segment queries visit nodes best-first
+// by the distance to their bounding boxes.
+// Roads and query points are given as longitude (x) and latitude (y) in degrees. A degree of
+// longitude shrinks with the cosine of the latitude (to about 0.74 of a degree of latitude in
+// Chicago), so the index works in a local equirectangular projection: metres east and north,
+// with longitude scaled by the cosine of the latitude at the middle of the roads. That is
+// accurate to well under a percent across a city, and distances and offsets come back in metres.
+
+public class SegmentIndex {
+
+    static final int NODE_CAPACITY = 16;
+    static final double METERS_PER_DEGREE = 6_371_008.8 * Math.PI / 180;  // Along a meridian, mean Earth radius
+
+    /**
+     * Where a point lands on the road network.
+     * @param segment Index of the nearest segment in the roads given to the
+     *   constructor (for fromOsm, the index in OsmData.getEdges())
+     * @param source OSM vertex at the segment's start
+     * @param destination OSM vertex at the segment's end
+     * @param point The closest point on the segment, in degrees
+     * @param offset Distance from the segment's start to that point, in metres
+     * @param distance Distance from the query point to that point, in metres
+     */
+    public record Snap(int segment, int source, int destination, Point point, double offset, double distance) { }
+
+    private record Node(double minX, double minY, double maxX, double maxY, int first, int count) { }
+
+    private final Line[] roads;  // As given, in degrees
+    private final double xScale;  // Metres per degree of longitude at the middle latitude
+    private final Line[] segments;  // Projected to metres, in leaf order so each leaf holds a contiguous run
+    private final int[] edgeIds, sources, destinations;  // By leaf order; edgeIds are indexes into roads
+    // Tree nodes, leaves first and the root last. A leaf's entries are segments, any other node's entries are nodes.
+    private final double[] minX, minY, maxX, maxY;
+    private final int[] first, count;
+    private final int leafCount;
+
+    /**
+     * Builds the index.
+     * @param roads The road segments, in degrees of longitude (x) and latitude (y)
+     * @param sources For each segment, the id of the vertex it starts at
+     * @param destinations For each segment, the id of the vertex it ends at
+     */
+    public SegmentIndex(Line[] roads, int[] sources, int[] destinations) {
+        int n = roads.length;
+        this.roads = roads.clone();
+        double yMin = Double.POSITIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+        for (Line road : roads) {
+            yMin = Math.min(yMin, Math.min(road.a.y, road.b.y));
+            yMax = Math.max(yMax, Math.max(road.a.y, road.b.y));
+        }
+        xScale = METERS_PER_DEGREE * (n == 0 ? 1 : Math.cos(Math.toRadians((yMin + yMax) / 2)));
+
+        Line[] projected = new Line[n];
+        double[] cx = new double[n], cy = new double[n];
+        for (int i = 0; i < n; i++) {
+            projected[i] = new Line(project(roads[i].a), project(roads[i].b));
+            cx[i] = (projected[i].a.x + projected[i].b.x) / 2;
+            cy[i] = (projected[i].a.y + projected[i].b.y) / 2;
+        }
+        int[] order = pack(cx, cy);
+        segments = new Line[n];
+        edgeIds = order;
+        this.sources = new int[n];
+        this.destinations = new int[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = projected[order[i]];
+            this.sources[i] = sources[order[i]];
+            this.destinations[i] = destinations[order[i]];
+        }
+
+        // Leaves over runs of segments
+        List<Node> level = new ArrayList<>();
+        for (int start = 0; start < n; start += NODE_CAPACITY) {
+            int end = Math.min(n, start + NODE_CAPACITY);
+            double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+            for (int s = start; s < end; s++) {
+                Line l = segments[s];
+                x0 = Math.min(x0, Math.min(l.a.x, l.b.x));
+                y0 = Math.min(y0, Math.min(l.a.y, l.b.y));
+                x1 = Math.max(x1, Math.max(l.a.x, l.b.x));
+                y1 = Math.max(y1, Math.max(l.a.y, l.b.y));
+            }
+            level.add(new Node(x0, y0, x1, y1, start, end - start));
+        }
+        leafCount = level.size();
+
+        // Pack each level into parents until only the root is left
+        List<Node> nodes = new ArrayList<>();
+        while (level.size() > 1) {
+            double[] ncx = new double[level.size()], ncy = new double[level.size()];
+            for (int i = 0; i < ncx.length; i++) {
+                ncx[i] = (level.get(i).minX() + level.get(i).maxX()) / 2;
+                ncy[i] = (level.get(i).minY() + level.get(i).maxY()) / 2;
+            }
+            int[] levelOrder = pack(ncx, ncy);
+            int base = nodes.size();
+            for (int i : levelOrder) {
+                nodes.add(level.get(i));
+            }
+            List<Node> parents = new ArrayList<>();
+            for (int start = 0; start < levelOrder.length; start += NODE_CAPACITY) {
+                int end = Math.min(levelOrder.length, start + NODE_CAPACITY);
+                double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+                for (int c = base + start; c < base + end; c++) {
+                    Node child = nodes.get(c);
+                    x0 = Math.min(x0, child.minX());
+                    y0 = Math.min(y0, child.minY());
+                    x1 = Math.max(x1, child.maxX());
+                    y1 = Math.max(y1, child.maxY());
+                }
+                parents.add(new Node(x0, y0, x1, y1, base + start, end - start));
+            }
+            level = parents;
+        }
+        nodes.addAll(level);
+
+        int size = nodes.size();
+        minX = new double[size];
+        minY = new double[size];
+        maxX = new double[size];
+        maxY = new double[size];
+        first = new int[size];
+        count = new int[size];
+        for (int i = 0; i < size; i++) {
+            Node node = nodes.get(i);
+            minX[i] = node.minX();
+            minY[i] = node.minY();
+            maxX[i] = node.maxX();
+            maxY[i] = node.maxY();
+            first[i] = node.first();
+            count[i] = node.count();
+        }
+    }
+
+    /**
+     * Builds an index over the edges of downloaded OSM data.
+     */
+    public static SegmentIndex fromOsm(OsmData data) {
+        OsmVertex[] vertices = data.getVertices();
+        OsmEdge[] edges = data.getEdges();
+        Point[] points = new Point[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            points[i] = new Point(vertices[i].getLongitude(), vertices[i].getLatitude());
+        }
+        Line[] roads = new Line[edges.length];
+        int[] sources = new int[edges.length], destinations = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            sources[i] = edges[i].getSource();
+            destinations[i] = edges[i].getDestination();
+            roads[i] = new Line(points[sources[i]], points[destinations[i]]);
+        }
+        return new SegmentIndex(roads, sources, destinations);
+    }
+
+    // Sort-Tile-Recursive order: vertical slices of whole nodes by x, each slice sorted by y.
+    // Consecutive runs of NODE_CAPACITY entries in the returned order become one node.
+    private static int[] pack(double[] cx, double[] cy) {
+        int n = cx.length;
+        long[] xKeys = new long[n];
+        for (int i = 0; i < n; i++) xKeys[i] = RadixSort.key(cx[i]);
+        int[] order = RadixSort.order(xKeys);
+
+        int nodeCount = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = Math.max(1, slices) * NODE_CAPACITY;
+        for (int start = 0; start < n; start += sliceSize) {
+            int end = Math.min(n, start + sliceSize);
+            int[] slice = Arrays.copyOfRange(order, start, end);
+            long[] yKeys = new long[slice.length];
+            for (int j = 0; j < slice.length; j++) yKeys[j] = RadixSort.key(cy[slice[j]]);
+            int[] sliceOrder = RadixSort.order(yKeys);
+            for (int j = 0; j < slice.length; j++) order[start + j] = slice[sliceOrder[j]];
+        }
+        return order;
+    }
+
+    public int size() {
+        return segments.length;
+    }
+
+    /**
+     * @param edge Index of a segment in the roads given to the constructor,
+     *   as in Snap.segment
+     * @return The segment, in degrees
+     */
+    public Line segment(int edge) {
+        return roads[edge];
+    }
+
+    // Degrees to metres in the local projection, and back
+    private Point project(Point p) {
+        return new Point(p.x * xScale, p.y * METERS_PER_DEGREE);
+    }
+
+    private Point unproject(Point p) {
+        return new Point(p.x / xScale, p.y / METERS_PER_DEGREE);
+    }
+
+    /**
+     * Finds the road segment nearest to a point.
+     * @param query Longitude (x) and latitude (y) in degrees
+     * @return Where the point snaps to, or null if the index is empty
+     */
+    public Snap nearest(Point query) {
+        if (segments.length == 0) return null;
+        Point p = project(query);
+
+        int best = -1;
+        double bestDistanceSquared = Double.POSITIVE_INFINITY;
+        // Nodes to visit, closest bounding box first: {distance squared, node}
+        PriorityQueue<double[]> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e[0]));
+        int root = minX.length - 1;
+        queue.add(new double[] {boxDistanceSquared(root, p), root});
+
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            if (entry[0] >= bestDistanceSquared) break;
+            int node = (int) entry[1];
+            int end = first[node] + count[node];
+            if (node < leafCount) {
+                for (int s = first[node]; s < end; s++) {
+                    double d = Geometry.squareDistanceToSegment(p, segments[s]);
+                    if (d < bestDistanceSquared) {
+                        bestDistanceSquared = d;
+                        best = s;
+                    }
+                }
+            } else {
+                for (int c = first[node]; c < end; c++) {
+                    double d = boxDistanceSquared(c, p);
+                    if (d < bestDistanceSquared) {
+                        queue.add(new double[] {d, c});
+                    }
+                }
+            }
+        }
+
+        Line road = segments[best];
+        double t = Geometry.closestParameter(p, road);
+        return new Snap(edgeIds[best], sources[best], destinations[best], unproject(Geometry.pointAlong(road, t)),
+                t * Geometry.distance(road.a, road.b), Math.sqrt(bestDistanceSquared));
+    }
+
+    /**
+     * Snaps every point of a GPS trace, in parallel.
+     * @return The snap for each point, in the same order as the trace
+     */
+    public Snap[] snapAll(Point[] trace) {
+        Snap[] snaps = new Snap[trace.length];
+        IntStream.range(0, trace.length).parallel().forEach(i -> snaps[i] = nearest(trace[i]));
+        return snaps;
+    }
+
+    private double boxDistanceSquared(int node, Point p) {
+        return Geometry.squareDistanceToRectangle(p.x, p.y, minX[node], maxX[node], minY[node], maxY[node]);
+    }
+}
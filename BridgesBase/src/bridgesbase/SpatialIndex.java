@@ -0,0 +1,40 @@
+package bridgesbase;
+
+// Common view of the point indexes (Quadtree, QuadtreeSnapshot, MortonIndex) so they can be
+// swapped and benchmarked against each other. Points are named by int ids from 0 to size() - 1,
+// and coordinates are longitude (x) and latitude (y) in degrees, as in QuadtreeSearch.
+
+public interface SpatialIndex {
+
+    int size();
+
+    double longitude(int id);
+
+    double latitude(int id);
+
+    String name(int id);
+
+    /**
+     * Finds the ids of all points within a radius of (qx, qy).
+     * @param qx Longitude of the center
+     * @param qy Latitude of the center
+     * @param radius The radius in degrees
+     */
+    int[] idsWithinRadius(double qx, double qy, double radius);
+
+    /**
+     * Finds the ids of all points inside a window, edges included.
+     */
+    int[] idsInWindow(double xMin, double xMax, double yMin, double yMax);
+
+    /**
+     * Finds the ids of the k points nearest to (qx, qy), closest first.
+     */
+    int[] nearest(double qx, double qy, int k);
+
+    /**
+     * Changes whenever points are added or ids are reassigned, so results
+     * remembered for one version can be thrown away when it changes.
+     */
+    long version();
+}
@@ -0,0 +1,121 @@
+package bridgesbase;
+
+import edu.sxu.cs.geometry.FixedPoint;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+// Compares the SpatialIndex implementations on the same random points and the same queries.
+// Each index answers every query, and the time per query is reported after a warm-up pass so
+// the JIT has compiled the query loops. The snapshot and the Morton indexes store FixedPoint
+// coordinates, so their radius results are also checked against the exact quadtree: any point
+// one includes and the other does not must lie within the FixedPoint error bound of the edge.
+// Random points rarely land that close to an edge; FixedPointAccuracyCheck in the test root
+// places them there on purpose, for radius, window and kNN queries.
+
+public class SpatialIndexBenchmark {
+
+    /**
+     * @param args number of points, number of queries (defaults: 200000, 20000)
+     */
+    public static void main(String[] args) throws java.io.IOException {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        SplittableRandom rand = new SplittableRandom(7);
+
+        // Points spread over the U.S. viewport used by QuadtreeSearch
+        QuadtreeSearch.Quadtree quadtree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+        for (int i = 0; i < points; i++) {
+            quadtree.insert(new ExtendedOsmVertex(rand.nextDouble(24.396308, 49.384358),
+                    rand.nextDouble(-125.0, -66.93457), "p" + i));
+        }
+        Path file = Files.createTempFile("benchmark", ".qts");
+        long datasetKey = QuadtreeSnapshot.datasetKey("benchmark", new HashMap<>());
+        QuadtreeSnapshot.write(quadtree, datasetKey, file);
+        MortonIndex morton = new MortonIndex(quadtree.points);
+        MortonIndex compressed = new MortonIndex(quadtree.points, true);
+        QuadtreeSnapshot snapshot = QuadtreeSnapshot.load(file, datasetKey);
+        SpatialIndex[] indexes = {quadtree, snapshot, morton, compressed};
+        String[] labels = {"Quadtree", "QuadtreeSnapshot", "MortonIndex", "MortonIndex (packed)"};
+
+        double[][] q = new double[queries][];
+        for (int i = 0; i < queries; i++) {
+            double x = rand.nextDouble(-125.0, -66.93457), y = rand.nextDouble(24.396308, 49.384358);
+            q[i] = new double[] {x, y, rand.nextDouble(0.05, 1.0), rand.nextInt(1, 20)};
+        }
+
+        System.out.printf("%d points, %d queries%n", points, queries);
+        System.out.printf("%-22s %12s %12s %12s%n", "index", "radius ns", "window ns", "kNN ns");
+        for (int i = 0; i < indexes.length; i++) {
+            run(indexes[i], q);  // Warm-up
+            long[] result = run(indexes[i], q);
+            System.out.printf("%-22s %12d %12d %12d   (%d results)%n", labels[i],
+                    result[0] / queries, result[1] / queries, result[2] / queries, result[3]);
+        }
+
+        System.out.printf("Coordinate storage: doubles %d bytes, fixed-point %d bytes, packed %d bytes%n",
+                16L * quadtree.size(), morton.coordinateBytes(), compressed.coordinateBytes());
+        for (int i = 1; i < indexes.length; i++) {
+            checkAccuracy(labels[i], quadtree, indexes[i], q);
+        }
+        Files.delete(file);
+    }
+
+    // Every disagreement between the exact and fixed-point radius results must be a point
+    // within the FixedPoint error bound of the edge of the circle
+    private static void checkAccuracy(String label, SpatialIndex exact, SpatialIndex fixed, double[][] queries) {
+        double tolerance = Math.sqrt(2) * FixedPoint.MAX_ERROR + 1e-12;
+        Map<String, Integer> exactIds = new HashMap<>();
+        for (int id = 0; id < exact.size(); id++) {
+            exactIds.put(exact.name(id), id);
+        }
+
+        int differences = 0, outOfBounds = 0;
+        for (double[] q : queries) {
+            Set<String> expected = new HashSet<>();
+            for (int id : exact.idsWithinRadius(q[0], q[1], q[2])) expected.add(exact.name(id));
+            Set<String> actual = new HashSet<>();
+            for (int id : fixed.idsWithinRadius(q[0], q[1], q[2])) actual.add(fixed.name(id));
+
+            Set<String> mismatched = new HashSet<>(expected);
+            mismatched.addAll(actual);
+            expected.retainAll(actual);
+            mismatched.removeAll(expected);
+            for (String name : mismatched) {
+                int id = exactIds.get(name);
+                double distance = Math.hypot(exact.longitude(id) - q[0], exact.latitude(id) - q[1]);
+                differences++;
+                if (Math.abs(distance - q[2]) > tolerance) outOfBounds++;
+            }
+        }
+        System.out.printf("%s radius results: %d points differ from exact, %d beyond the %.2g degree bound%n",
+                label, differences, outOfBounds, tolerance);
+        if (outOfBounds > 0) {
+            throw new AssertionError(outOfBounds + " " + label + " radius results are beyond the FixedPoint error bound");
+        }
+    }
+
+    // Returns total nanoseconds for radius, window and kNN queries, and the total result count
+    private static long[] run(SpatialIndex index, double[][] queries) {
+        long found = 0;
+        long t0 = System.nanoTime();
+        for (double[] q : queries) {
+            found += index.idsWithinRadius(q[0], q[1], q[2]).length;
+        }
+        long t1 = System.nanoTime();
+        for (double[] q : queries) {
+            found += index.idsInWindow(q[0] - q[2], q[0] + q[2], q[1] - q[2], q[1] + q[2]).length;
+        }
+        long t2 = System.nanoTime();
+        for (double[] q : queries) {
+            found += index.nearest(q[0], q[1], (int) q[3]).length;
+        }
+        long t3 = System.nanoTime();
+        return new long[] {t1 - t0, t2 - t1, t3 - t2, found};
+    }
+}
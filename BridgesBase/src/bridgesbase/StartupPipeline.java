@@ -0,0 +1,156 @@
+package bridgesbase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Runs an app's startup as a graph of timed phases instead of one step after another.
+// Downloads (fetch) each start at once on their own virtual thread, so independent data sets
+// are fetched concurrently. Processing (then, combine) runs on the common pool as soon as its
+// inputs arrive, so parsing and index building for one data set overlap the downloads still
+// in flight. Every phase records when it started and finished, and report() prints the
+// breakdown next to the wall-clock time.
+//
+// A pipeline created with concurrent = false runs each phase on the calling thread the moment
+// it is added, which reproduces the old strictly sequential startup for comparison.
+
+public class StartupPipeline implements AutoCloseable {
+
+    /**
+     * A download or other blocking step.
+     */
+    public interface Fetch<T> {
+        T get() throws IOException;
+    }
+
+    /**
+     * One timed phase; times are nanoseconds since the pipeline was created.
+     */
+    public record Phase(String name, long start, long end) {
+        public long duration() {
+            return end - start;
+        }
+    }
+
+    private final long created = System.nanoTime();
+    private final ExecutorService fetchExecutor;
+    private final Executor stageExecutor;
+    private final List<Phase> phases = new ArrayList<>();
+
+    public StartupPipeline() {
+        this(true);
+    }
+
+    public StartupPipeline(boolean concurrent) {
+        fetchExecutor = concurrent ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        stageExecutor = concurrent ? ForkJoinPool.commonPool() : Runnable::run;
+    }
+
+    /**
+     * Starts a download.
+     * @return The downloaded data; an IOException from the fetch completes it exceptionally
+     */
+    public <T> CompletableFuture<T> fetch(String name, Fetch<T> fetch) {
+        return CompletableFuture.supplyAsync(() -> timed(name, () -> {
+            try {
+                return fetch.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), fetchExecutor != null ? fetchExecutor : Runnable::run);
+    }
+
+    /**
+     * Processes the result of an earlier phase as soon as it is ready.
+     */
+    public <A, T> CompletableFuture<T> then(String name, CompletableFuture<A> input, Function<A, T> stage) {
+        return input.thenApplyAsync(a -> timed(name, () -> stage.apply(a)), stageExecutor);
+    }
+
+    /**
+     * Processes the results of two earlier phases once both are ready.
+     */
+    public <A, B, T> CompletableFuture<T> combine(String name, CompletableFuture<A> first,
+            CompletableFuture<B> second, BiFunction<A, B, T> stage) {
+        return first.thenCombineAsync(second, (a, b) -> timed(name, () -> stage.apply(a, b)), stageExecutor);
+    }
+
+    /**
+     * Runs a phase on the calling thread, such as building symbols once the data is in.
+     */
+    public <T> T run(String name, Supplier<T> stage) {
+        return timed(name, stage);
+    }
+
+    /**
+     * Waits for a phase.
+     * @throws IOException when a download it depends on failed
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException u) throw u.getCause();
+            if (cause instanceof RuntimeException r) throw r;
+            if (cause instanceof Error err) throw err;
+            throw e;
+        }
+    }
+
+    /**
+     * @return The finished phases, in the order they started
+     */
+    public List<Phase> phases() {
+        synchronized (phases) {
+            List<Phase> sorted = new ArrayList<>(phases);
+            sorted.sort(Comparator.comparingLong(Phase::start));
+            return sorted;
+        }
+    }
+
+    /**
+     * @return A table of each phase's start and duration in milliseconds, with the
+     *   wall-clock time so far; the phases add up to more than that when they overlapped
+     */
+    public String report() {
+        List<Phase> finished = phases();
+        StringBuilder sb = new StringBuilder(String.format("%-28s %10s %10s%n", "phase", "start ms", "ms"));
+        long busy = 0, wall = 0;
+        for (Phase p : finished) {
+            sb.append(String.format("%-28s %10.1f %10.1f%n", p.name(), p.start() / 1e6, p.duration() / 1e6));
+            busy += p.duration();
+            wall = Math.max(wall, p.end());
+        }
+        sb.append(String.format("%-28s %10s %10.1f   (phases add up to %.1f ms)%n", "total", "", wall / 1e6, busy / 1e6));
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        if (fetchExecutor != null) fetchExecutor.close();
+    }
+
+    private <T> T timed(String name, Supplier<T> stage) {
+        long start = System.nanoTime() - created;
+        try {
+            return stage.get();
+        } finally {
+            Phase phase = new Phase(name, start, System.nanoTime() - created);
+            synchronized (phases) {
+                phases.add(phase);
+            }
+        }
+    }
+}
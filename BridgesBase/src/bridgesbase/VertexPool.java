@@ -0,0 +1,80 @@
+package bridgesbase;
+
+import edu.sxu.cs.geometry.FixedPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Hands out one shared ExtendedOsmVertex per location, so a vertex repeated by several data sets
+// (or by neighbouring OSM regions that overlap at their edges) is stored once. Locations are
+// compared by their FixedPoint coordinates, so vertices that round to the same 1e-7 degree count
+// as the same vertex, and the first name given for a location is kept. The lookup table is open
+// addressing on the packed fixed-point coordinates, so lookups do not box anything.
+
+public class VertexPool {
+
+    private final List<ExtendedOsmVertex> vertices = new ArrayList<>();
+    private long[] keys = new long[64];
+    private int[] slots = new int[64];  // Vertex index + 1, or 0 for an empty slot
+
+    /**
+     * @return The pooled vertex at this location, created with this name if
+     *   the location has not been seen before
+     */
+    public synchronized ExtendedOsmVertex intern(double latitude, double longitude, String name) {
+        long key = FixedPoint.pack(FixedPoint.fromDegrees(longitude), FixedPoint.fromDegrees(latitude));
+        int mask = slots.length - 1;
+        int i = hash(key) & mask;
+        while (slots[i] != 0) {
+            if (keys[i] == key) return vertices.get(slots[i] - 1);
+            i = (i + 1) & mask;
+        }
+
+        ExtendedOsmVertex vertex = new ExtendedOsmVertex(latitude, longitude, name);
+        vertices.add(vertex);
+        keys[i] = key;
+        slots[i] = vertices.size();
+        if (2 * vertices.size() > slots.length) grow();  // Keep the table at most half full
+        return vertex;
+    }
+
+    public ExtendedOsmVertex intern(ExtendedOsmVertex vertex) {
+        return intern(vertex.getLatitude(), vertex.getLongitude(), vertex.getCity());
+    }
+
+    public synchronized int size() {
+        return vertices.size();
+    }
+
+    /**
+     * @return The pooled vertices, in the order they were first seen
+     */
+    public synchronized List<ExtendedOsmVertex> vertices() {
+        return new ArrayList<>(vertices);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] == 0) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+        }
+    }
+
+    // Spread nearby coordinates over the whole table (the finalizer from MurmurHash3)
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,45 @@
+//Fixed-point coordinates: whole numbers of ten-millionths of a degree, stored in an int.
+//
+//Accuracy: a coordinate is rounded to the nearest 1e-7 degree, so it moves by at most
+//  MAX_ERROR = 5e-8 degree (about 5.6 mm of latitude), and a point moves by at most
+//  sqrt(2) * MAX_ERROR. Distances between a stored point and an exact query point are off
+//  by no more than that, so a radius search only disagrees with a search on doubles for
+//  points within about 7.1e-8 degree of the edge of the circle. Longitudes up to 180 degrees
+//  fit, since 1.8e9 is less than Integer.MAX_VALUE.
+
+package edu.sxu.cs.geometry;
+
+public final class FixedPoint
+{
+    public static final double SCALE = 1e7;
+    public static final double MAX_ERROR = 0.5/SCALE;
+
+    public static int fromDegrees(double degrees)
+    {
+        if (!(degrees >= -180 && degrees <= 180))
+            throw new IllegalArgumentException("Not a coordinate in degrees: "+degrees);
+        return (int)Math.round(degrees*SCALE);
+    }
+
+    public static double toDegrees(int fixed)
+    {
+        return fixed/SCALE;
+    }
+
+    //Both coordinates of a point in one long, for use as a hash key
+    public static long pack(int x, int y)
+    {
+        return ((long)x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(long packed)
+    {
+        return (int)(packed >> 32);
+    }
+
+    public static int unpackY(long packed)
+    {
+        return (int)packed;
+    }
+
+}
@@ -29,5 +29,46 @@ public final class Geometry
     {
         return (l.b.y-l.a.y)*p.x - (l.b.x-l.a.x)*p.y + l.b.x*l.a.y - l.b.y*l.a.x;
     }
+    
+    //Treating l as a segment, finds where the point of l closest to p lies:
+    //  0 at l.a, 1 at l.b, and in between proportionally.
+    public static double closestParameter(Point p, Line l)
+    {
+        double dx = l.b.x-l.a.x, dy = l.b.y-l.a.y;
+        double lengthSquared = dx*dx + dy*dy;
+        if (lengthSquared == 0)
+            return 0;
+        double t = ((p.x-l.a.x)*dx + (p.y-l.a.y)*dy)/lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+    
+    public static Point pointAlong(Line l, double t)
+    {
+        return new Point(l.a.x + t*(l.b.x-l.a.x), l.a.y + t*(l.b.y-l.a.y));
+    }
+    
+    public static double squareDistanceToSegment(Point p, Line l)
+    {
+        double t = closestParameter(p, l);
+        double x = l.a.x + t*(l.b.x-l.a.x) - p.x;
+        double y = l.a.y + t*(l.b.y-l.a.y) - p.y;
+        return x*x + y*y;
+    }
+    
+    //Square of the distance from (x,y) to the nearest point of the rectangle
+    //  [xMin,xMax] by [yMin,yMax], or 0 if the point is inside it.
+    public static double squareDistanceToRectangle(double x, double y, double xMin, double xMax, double yMin, double yMax)
+    {
+        double dx = 0, dy = 0;
+        if (x < xMin)
+            dx = xMin-x;
+        else if (x > xMax)
+            dx = x-xMax;
+        if (y < yMin)
+            dy = yMin-y;
+        else if (y > yMax)
+            dy = y-yMax;
+        return dx*dx + dy*dy;
+    }
 
 }
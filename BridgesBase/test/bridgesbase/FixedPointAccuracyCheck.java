@@ -0,0 +1,195 @@
+package bridgesbase;
+
+import edu.sxu.cs.geometry.FixedPoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Checks the accuracy bound documented in FixedPoint on the queries of every index that stores
+// fixed-point coordinates: both MortonIndex modes and the QuadtreeSnapshot file QueryService serves.
+// Points are placed on purpose within a few MAX_ERROR of a circle's edge, of a window's edges
+// and of a kNN tie, where rounding can change an answer, and every answer is compared with
+// exact arithmetic on the original doubles:
+//   - a point farther than the bound from the edge must be answered exactly as with doubles;
+//   - a point within the bound may go either way;
+//   - kNN may only swap points whose exact distances are within twice the bound.
+// Throws an AssertionError (a non-zero exit) on the first violation.
+//
+//   java -cp build/classes:build/test/classes bridgesbase.FixedPointAccuracyCheck
+
+public class FixedPointAccuracyCheck {
+
+    // How far a stored point can be from the original, in degrees
+    static final double POINT_BOUND = Math.sqrt(2) * FixedPoint.MAX_ERROR + 1e-12;
+    static final double[] OFFSETS = {-3, -1.5, -1, -0.5, 0, 0.5, 1, 1.5, 3};  // In units of MAX_ERROR
+
+    static final String[] KINDS = {"Morton", "packed Morton", "snapshot"};
+
+    public static void main(String[] args) throws IOException {
+        checkRounding();
+        for (String kind : KINDS) {
+            checkRadius(kind);
+            checkWindow(kind);
+            checkNearest(kind);
+        }
+        System.out.println("FixedPointAccuracyCheck passed");
+    }
+
+    private static void checkRounding() {
+        for (double d : new double[] {-180, 180, -90, 90, 0, -87.62980000000005, 41.87810049999, 1e-8, -4.99e-8}) {
+            double error = Math.abs(FixedPoint.toDegrees(FixedPoint.fromDegrees(d)) - d);
+            check(error <= FixedPoint.MAX_ERROR + 1e-15, "rounding " + d + " is off by " + error);
+        }
+        for (double d : new double[] {180.0000001, -180.0000001, Double.NaN}) {
+            try {
+                FixedPoint.fromDegrees(d);
+                throw new AssertionError("fromDegrees accepted " + d);
+            } catch (IllegalArgumentException expected) {
+                // Rejected as documented
+            }
+        }
+    }
+
+    private static void checkRadius(String kind) throws IOException {
+        double radius = 0.05;
+        List<double[]> centers = new ArrayList<>();
+        List<double[]> points = new ArrayList<>();
+        for (int c = 0; c < 20; c++) {
+            // Centers off the fixed-point grid, far enough apart that their circles do not meet
+            double cx = -87.62983317 + 0.31 * c, cy = 41.87811129 + 0.017 * c;
+            centers.add(new double[] {cx, cy});
+            for (int a = 0; a < 48; a++) {
+                double angle = 2 * Math.PI * (a + 0.37) / 48;
+                for (double offset : OFFSETS) {
+                    double r = radius + offset * FixedPoint.MAX_ERROR;
+                    points.add(new double[] {cx + r * Math.cos(angle), cy + r * Math.sin(angle)});
+                }
+            }
+        }
+        SpatialIndex index = build(points, kind);
+        int[] byId = originalIds(index);
+
+        for (double[] center : centers) {
+            boolean[] found = new boolean[points.size()];
+            for (int id : index.idsWithinRadius(center[0], center[1], radius)) found[byId[id]] = true;
+            for (int i = 0; i < points.size(); i++) {
+                double distance = Math.hypot(points.get(i)[0] - center[0], points.get(i)[1] - center[1]);
+                if (distance > 2 * radius) continue;  // Another center's circle
+                boolean inside = distance <= radius;
+                if (found[i] != inside) {
+                    check(Math.abs(distance - radius) <= POINT_BOUND, kind + " radius: point " + (distance - radius)
+                            + " degree from the edge was " + (found[i] ? "included" : "missed"));
+                }
+            }
+        }
+    }
+
+    private static void checkWindow(String kind) throws IOException {
+        double xMin = -87.70001237, xMax = -87.60004411, yMin = 41.80003319, yMax = 41.90007723;
+        List<double[]> points = new ArrayList<>();
+        for (double offset : OFFSETS) {
+            double e = offset * FixedPoint.MAX_ERROR;
+            for (int t = 0; t < 25; t++) {
+                double x = xMin + (xMax - xMin) * (t + 0.5) / 25, y = yMin + (yMax - yMin) * (t + 0.5) / 25;
+                points.add(new double[] {xMin + e, y});
+                points.add(new double[] {xMax + e, y});
+                points.add(new double[] {x, yMin + e});
+                points.add(new double[] {x, yMax + e});
+            }
+        }
+        SpatialIndex index = build(points, kind);
+        int[] byId = originalIds(index);
+
+        boolean[] found = new boolean[points.size()];
+        for (int id : index.idsInWindow(xMin, xMax, yMin, yMax)) found[byId[id]] = true;
+        for (int i = 0; i < points.size(); i++) {
+            double x = points.get(i)[0], y = points.get(i)[1];
+            boolean inside = x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+            if (found[i] != inside) {
+                // Each coordinate moves by at most MAX_ERROR, so only points that close to an edge may differ
+                double edge = Math.min(Math.min(Math.abs(x - xMin), Math.abs(x - xMax)),
+                                       Math.min(Math.abs(y - yMin), Math.abs(y - yMax)));
+                check(edge <= FixedPoint.MAX_ERROR + 1e-12, kind + " window: point " + edge
+                        + " degree from an edge was " + (found[i] ? "included" : "missed"));
+            }
+        }
+    }
+
+    private static void checkNearest(String kind) throws IOException {
+        // Pairs of points around each query at almost the same distance, so the k-th nearest is a near tie
+        double qx = -87.62983317, qy = 41.87811129;
+        List<double[]> points = new ArrayList<>();
+        for (int ring = 1; ring <= 10; ring++) {
+            for (double offset : OFFSETS) {
+                double r = 0.001 * ring + offset * FixedPoint.MAX_ERROR;
+                double angle = 0.7 * ring + offset;
+                points.add(new double[] {qx + r * Math.cos(angle), qy + r * Math.sin(angle)});
+            }
+        }
+        SpatialIndex index = build(points, kind);
+        int[] byId = originalIds(index);
+        double[] distance = new double[points.size()];
+        for (int i = 0; i < distance.length; i++) {
+            distance[i] = Math.hypot(points.get(i)[0] - qx, points.get(i)[1] - qy);
+        }
+        double[] sorted = distance.clone();
+        java.util.Arrays.sort(sorted);
+
+        for (int k = 1; k <= points.size(); k++) {
+            int[] ids = index.nearest(qx, qy, k);
+            check(ids.length == k, kind + " kNN returned " + ids.length + " points for k = " + k);
+            double kth = sorted[k - 1];
+            boolean[] returned = new boolean[points.size()];
+            for (int id : ids) {
+                int i = byId[id];
+                returned[i] = true;
+                check(distance[i] <= kth + 2 * POINT_BOUND, kind + " kNN k = " + k + " returned a point "
+                        + (distance[i] - kth) + " degree beyond the k-th nearest");
+            }
+            for (int i = 0; i < points.size(); i++) {
+                check(returned[i] || distance[i] >= kth - 2 * POINT_BOUND, kind + " kNN k = " + k
+                        + " missed a point " + (kth - distance[i]) + " degree inside the k-th nearest");
+            }
+        }
+    }
+
+    private static SpatialIndex build(List<double[]> points, String kind) throws IOException {
+        List<ExtendedOsmVertex> vertices = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            vertices.add(new ExtendedOsmVertex(points.get(i)[1], points.get(i)[0], Integer.toString(i)));
+        }
+        SpatialIndex index;
+        if (kind.equals("snapshot")) {
+            QuadtreeSearch.Quadtree tree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+            for (ExtendedOsmVertex v : vertices) tree.insert(v);
+            Path file = Files.createTempFile("accuracy", ".qts");
+            file.toFile().deleteOnExit();  // Not deleted now, since the loaded snapshot maps it
+            QuadtreeSnapshot.write(tree, 0, file);
+            index = QuadtreeSnapshot.load(file, 0);
+        } else {
+            index = new MortonIndex(vertices, kind.startsWith("packed"));
+        }
+        check(index.size() == points.size(), kind + " index dropped points");
+        return index;
+    }
+
+    // Ids are in key or tree order; the names hold the original positions
+    private static int[] originalIds(SpatialIndex index) {
+        int[] byId = new int[index.size()];
+        Map<Integer, Integer> seen = new HashMap<>();
+        for (int id = 0; id < byId.length; id++) {
+            byId[id] = Integer.parseInt(index.name(id));
+            check(seen.put(byId[id], id) == null, "point " + byId[id] + " stored twice");
+        }
+        return byId;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,185 @@
+package bridgesbase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks QueryCache's hit and miss counting, its capacity, and that cached results are dropped
+// when the index changes or invalidate() is called. The index is wrapped so every query that
+// reaches it is counted: a hit must not reach the index and a miss must.
+// Throws an AssertionError (a non-zero exit) on the first violation.
+//
+//   java -cp build/classes:build/test/classes bridgesbase.QueryCacheCheck
+
+public class QueryCacheCheck {
+
+    public static void main(String[] args) throws Exception {
+        checkCounting();
+        checkInvalidation();
+        checkCapacity();
+        checkConcurrent();
+        System.out.println("QueryCacheCheck passed");
+    }
+
+    private static void checkCounting() {
+        CountingIndex index = new CountingIndex(tree(100));
+        QueryCache cache = new QueryCache(100);
+        int[] first = cache.pointsWithinRadius(index, 3, 50);
+        expect(cache, index, 0, 1, 1);
+        check(cache.pointsWithinRadius(index, 3, 50) == first, "a hit did not return the stored result");
+        expect(cache, index, 1, 1, 1);
+        cache.pointsWithinRadius(index, 3, 50.004);  // Rounds to the same 0.01 mile step
+        expect(cache, index, 2, 1, 1);
+        cache.pointsWithinRadius(index, 3, 50.01);
+        cache.nearest(index, 3, 5);
+        cache.nearest(index, 3, 5);
+        cache.nearest(index, 4, 5);
+        expect(cache, index, 3, 4, 4);
+        check(Math.abs(cache.hitRate() - 3.0 / 7) < 1e-12, "hit rate " + cache.hitRate() + ", expected 3 / 7");
+    }
+
+    private static void checkInvalidation() {
+        QuadtreeSearch.Quadtree tree = tree(100);
+        CountingIndex index = new CountingIndex(tree);
+        QueryCache cache = new QueryCache(100);
+        cache.nearest(index, 1, 5);
+        cache.nearest(index, 1, 5);
+        expect(cache, index, 1, 1, 1);
+
+        // An insert changes the version, so the next query misses and sees the new point
+        tree.insert(new ExtendedOsmVertex(tree.latitude(1), tree.longitude(1), "Twin"));
+        int[] ids = cache.nearest(index, 1, 5);
+        expect(cache, index, 1, 2, 2);
+        boolean found = false;
+        for (int id : ids) found |= tree.name(id).equals("Twin");
+        check(found, "result after an insert misses the new point");
+
+        cache.invalidate();
+        check(cache.size() == 0, "invalidate left " + cache.size() + " entries");
+        cache.nearest(index, 1, 5);
+        expect(cache, index, 1, 3, 3);
+
+        // Another index with the same version must not be answered from this one's entries
+        CountingIndex other = new CountingIndex(tree);
+        cache.nearest(other, 1, 5);
+        check(cache.misses() == 4 && other.queries.get() == 1, "a different index was answered from the cache");
+    }
+
+    private static void checkCapacity() {
+        CountingIndex index = new CountingIndex(tree(500));
+        for (int capacity : new int[] {1, 7, 16, 100}) {
+            QueryCache cache = new QueryCache(capacity);
+            for (int id = 0; id < 500; id++) {
+                cache.nearest(index, id, 3);
+                check(cache.size() <= capacity, "cache of " + capacity + " holds " + cache.size() + " entries");
+            }
+            check(cache.size() >= Math.min(capacity, QueryCache.STRIPES), "cache of " + capacity + " kept only " + cache.size());
+        }
+        // The most recently used entry survives a full cache
+        QueryCache cache = new QueryCache(1);
+        cache.nearest(index, 7, 3);
+        cache.nearest(index, 7, 3);
+        check(cache.hits() == 1, "a cache of one entry lost its only entry");
+    }
+
+    // Every call is counted once as a hit or a miss, and only misses reach the index
+    private static void checkConcurrent() throws Exception {
+        CountingIndex index = new CountingIndex(tree(200));
+        QueryCache cache = new QueryCache(1_000);
+        int threads = 64, callsPerThread = 500;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                futures.add(executor.submit(() -> {
+                    SplittableRandom rand = new SplittableRandom(seed);
+                    for (int i = 0; i < callsPerThread; i++) {
+                        if (rand.nextBoolean()) cache.nearest(index, rand.nextInt(50), 3);
+                        else cache.pointsWithinRadius(index, rand.nextInt(50), 25);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        }
+        long calls = (long) threads * callsPerThread;
+        check(cache.hits() + cache.misses() == calls, (cache.hits() + cache.misses()) + " counted for " + calls + " calls");
+        check(cache.misses() == index.queries.get(), cache.misses() + " misses but " + index.queries.get() + " index queries");
+        check(cache.size() == 100, "cache holds " + cache.size() + " of the 100 distinct queries");
+    }
+
+    private static QuadtreeSearch.Quadtree tree(int count) {
+        SplittableRandom rand = new SplittableRandom(28);
+        QuadtreeSearch.Quadtree tree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+        for (int i = 0; i < count; i++) {
+            tree.insert(new ExtendedOsmVertex(rand.nextDouble(40, 42), rand.nextDouble(-89, -87), "City " + i));
+        }
+        return tree;
+    }
+
+    private static void expect(QueryCache cache, CountingIndex index, long hits, long misses, int queries) {
+        check(cache.hits() == hits && cache.misses() == misses, "counted " + cache.hits() + " hits and "
+                + cache.misses() + " misses, expected " + hits + " and " + misses);
+        check(index.queries.get() == queries, index.queries.get() + " index queries, expected " + queries);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    // Passes everything through to an index, counting the queries
+    private static final class CountingIndex implements SpatialIndex {
+        final SpatialIndex index;
+        final AtomicInteger queries = new AtomicInteger();
+
+        CountingIndex(SpatialIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public int size() {
+            return index.size();
+        }
+
+        @Override
+        public double longitude(int id) {
+            return index.longitude(id);
+        }
+
+        @Override
+        public double latitude(int id) {
+            return index.latitude(id);
+        }
+
+        @Override
+        public String name(int id) {
+            return index.name(id);
+        }
+
+        @Override
+        public int[] idsWithinRadius(double qx, double qy, double radius) {
+            queries.incrementAndGet();
+            return index.idsWithinRadius(qx, qy, radius);
+        }
+
+        @Override
+        public int[] idsInWindow(double xMin, double xMax, double yMin, double yMax) {
+            queries.incrementAndGet();
+            return index.idsInWindow(xMin, xMax, yMin, yMax);
+        }
+
+        @Override
+        public int[] nearest(double qx, double qy, int k) {
+            queries.incrementAndGet();
+            return index.nearest(qx, qy, k);
+        }
+
+        @Override
+        public long version() {
+            return index.version();
+        }
+    }
+}
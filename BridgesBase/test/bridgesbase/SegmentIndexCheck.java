@@ -0,0 +1,92 @@
+package bridgesbase;
+
+import edu.sxu.cs.geometry.Geometry;
+import edu.sxu.cs.geometry.Line;
+import edu.sxu.cs.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Checks SegmentIndex against a brute-force scan. Roads are given in shuffled order, so a snap
+// that reported the segment's position in the packed tree instead of its index in the input
+// would fail. Throws an AssertionError (a non-zero exit) on the first wrong answer.
+//
+//   java -cp build/classes:build/test/classes bridgesbase.SegmentIndexCheck
+
+public class SegmentIndexCheck {
+
+    public static void main(String[] args) {
+        checkEdgeIds();
+        checkProjection();
+        System.out.println("SegmentIndexCheck passed");
+    }
+
+    // Every snap names the input segment a brute-force scan finds nearest
+    private static void checkEdgeIds() {
+        SplittableRandom rand = new SplittableRandom(31);
+        List<Line> list = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            double x = rand.nextDouble(-87.9, -87.5), y = rand.nextDouble(41.7, 42.0);
+            list.add(new Line(new Point(x, y), new Point(x + rand.nextDouble(-0.002, 0.002), y + rand.nextDouble(-0.002, 0.002))));
+        }
+        Collections.shuffle(list, new java.util.Random(7));
+        Line[] roads = list.toArray(new Line[0]);
+        int[] sources = new int[roads.length], destinations = new int[roads.length];
+        for (int i = 0; i < roads.length; i++) {
+            sources[i] = 2 * i;
+            destinations[i] = 2 * i + 1;
+        }
+        SegmentIndex index = new SegmentIndex(roads, sources, destinations);
+        // The index scales longitude by the cosine of the latitude halfway up the roads
+        double yMin = Double.POSITIVE_INFINITY, yMax = Double.NEGATIVE_INFINITY;
+        for (Line road : roads) {
+            yMin = Math.min(yMin, Math.min(road.a.y, road.b.y));
+            yMax = Math.max(yMax, Math.max(road.a.y, road.b.y));
+        }
+        double cos = Math.cos(Math.toRadians((yMin + yMax) / 2));
+
+        for (int q = 0; q < 500; q++) {
+            Point p = new Point(rand.nextDouble(-87.9, -87.5), rand.nextDouble(41.7, 42.0));
+            int expected = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < roads.length; i++) {
+                double d = Geometry.squareDistanceToSegment(scaled(p, cos), new Line(scaled(roads[i].a, cos), scaled(roads[i].b, cos)));
+                if (d < best) {
+                    best = d;
+                    expected = i;
+                }
+            }
+            SegmentIndex.Snap snap = index.nearest(p);
+            check(snap.segment() == expected, "query " + q + ": snapped to " + snap.segment() + ", nearest is " + expected);
+            check(index.segment(snap.segment()) == roads[expected], "segment(" + snap.segment() + ") is not the input road");
+            check(snap.source() == 2 * expected && snap.destination() == 2 * expected + 1, "wrong vertices for " + expected);
+            double metres = Math.sqrt(best) * SegmentIndex.METERS_PER_DEGREE;
+            check(Math.abs(snap.distance() - metres) < 1e-6, "distance " + snap.distance() + " m, expected " + metres);
+        }
+    }
+
+    // Near Chicago, a road 0.0010 degree of longitude east (about 83 m) is closer than one
+    // 0.0009 degree of latitude north (about 100 m), though it is farther in raw degrees
+    private static void checkProjection() {
+        Point origin = new Point(-87.63, 41.88);
+        Line east = new Line(new Point(-87.629, 41.87), new Point(-87.629, 41.89));
+        Line north = new Line(new Point(-87.64, 41.8809), new Point(-87.62, 41.8809));
+        SegmentIndex index = new SegmentIndex(new Line[] {north, east}, new int[] {0, 1}, new int[] {0, 1});
+        SegmentIndex.Snap snap = index.nearest(origin);
+        check(snap.segment() == 1, "snapped to the road 100 m north instead of the one 83 m east");
+        check(Math.abs(snap.distance() - 82.9) < 0.5, "distance " + snap.distance() + " m, expected about 82.9 m");
+        check(Math.abs(snap.offset() - 1112) < 1, "offset " + snap.offset() + " m, expected about 1112 m");
+        check(Math.abs(snap.point().x - -87.629) < 1e-9 && Math.abs(snap.point().y - 41.88) < 1e-9,
+                "snapped point " + snap.point().x + ", " + snap.point().y + " is not in degrees on the road");
+    }
+
+    private static Point scaled(Point p, double cos) {
+        return new Point(p.x * cos, p.y);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,156 @@
+package bridgesbase;
+
+import edu.sxu.cs.geometry.FixedPoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Checks that QuadtreeSnapshot.load only accepts a snapshot it can trust: a good file answers
+// like the quadtree it was written from, while a stale, truncated or corrupt file, one with any
+// header byte changed, or one written for another data set is rejected with an IOException.
+// Throws an AssertionError (a non-zero exit) on the first file that is wrongly accepted.
+//
+//   java -cp build/classes:build/test/classes bridgesbase.SnapshotCheck
+
+public class SnapshotCheck {
+
+    static final Duration MAX_AGE = Duration.ofDays(7);
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("snapshot-check");
+        try {
+            Path file = dir.resolve("cities.qts");
+            long key = QuadtreeSnapshot.datasetKey("check", new HashMap<>());
+            QuadtreeSearch.Quadtree tree = tree();
+            QuadtreeSnapshot.write(tree, key, file);
+            byte[] good = Files.readAllBytes(file);
+
+            checkRoundTrip(tree, QuadtreeSnapshot.load(file, key, MAX_AGE));
+            checkFreshness(file, key);
+            checkDatasetKey(file, key);
+            checkTruncated(good, file, key);
+            checkHeader(good, file, key);
+            checkBody(good, file, key);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path p : files.toList()) Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("SnapshotCheck passed");
+    }
+
+    private static QuadtreeSearch.Quadtree tree() {
+        SplittableRandom rand = new SplittableRandom(26);
+        QuadtreeSearch.Quadtree tree = new QuadtreeSearch.Quadtree(-180, 180, -90, 90);
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(new ExtendedOsmVertex(rand.nextDouble(24.4, 49.4), rand.nextDouble(-125, -67), "City " + i));
+        }
+        return tree;
+    }
+
+    // The snapshot holds every point with its name, rounded to FixedPoint, and finds the same
+    // points as the tree (none of these random points is within the accuracy bound of an edge)
+    private static void checkRoundTrip(QuadtreeSearch.Quadtree tree, QuadtreeSnapshot snapshot) {
+        check(snapshot.size() == tree.size(), "snapshot has " + snapshot.size() + " points, tree has " + tree.size());
+        Map<String, Integer> byName = new HashMap<>();
+        for (int id = 0; id < snapshot.size(); id++) byName.put(snapshot.name(id), id);
+        for (int id = 0; id < tree.size(); id++) {
+            Integer stored = byName.get(tree.name(id));
+            check(stored != null, tree.name(id) + " is missing from the snapshot");
+            check(Math.abs(snapshot.longitude(stored) - tree.longitude(id)) <= FixedPoint.MAX_ERROR + 1e-12
+                    && Math.abs(snapshot.latitude(stored) - tree.latitude(id)) <= FixedPoint.MAX_ERROR + 1e-12,
+                    tree.name(id) + " moved by more than FixedPoint.MAX_ERROR");
+        }
+        String[] expected = names(tree, tree.idsWithinRadius(-96, 37, 5));
+        String[] found = names(snapshot, snapshot.idsWithinRadius(-96, 37, 5));
+        check(expected.length > 0 && Arrays.equals(expected, found), "radius query differs from the tree");
+        expected = names(tree, tree.nearest(-80, 40, 25));
+        found = names(snapshot, snapshot.nearest(-80, 40, 25));
+        check(Arrays.equals(expected, found), "kNN query differs from the tree");
+    }
+
+    private static String[] names(SpatialIndex index, int[] ids) {
+        String[] names = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            names[i] = index.name(ids[i]);
+        }
+        Arrays.sort(names);
+        return names;
+    }
+
+    // A file older than the maximum age is stale; loading without an age limit still works
+    private static void checkFreshness(Path file, long key) throws IOException {
+        Instant now = Instant.now();
+        Files.setLastModifiedTime(file, FileTime.from(now.minus(MAX_AGE).plusSeconds(60)));
+        QuadtreeSnapshot.load(file, key, MAX_AGE);
+        Files.setLastModifiedTime(file, FileTime.from(now.minus(MAX_AGE).minusSeconds(60)));
+        expectRejected(file, key, "a snapshot older than " + MAX_AGE);
+        QuadtreeSnapshot.load(file, key);
+        Files.setLastModifiedTime(file, FileTime.from(now));
+    }
+
+    private static void checkDatasetKey(Path file, long key) throws IOException {
+        long other = QuadtreeSnapshot.datasetKey("check", Map.of("min_pop", "1"));
+        check(other != key, "different requests got the same key");
+        expectRejected(file, other, "a snapshot of another data set");
+    }
+
+    // Every shorter file, down to an empty one, is rejected
+    private static void checkTruncated(byte[] good, Path file, long key) throws IOException {
+        for (int length : new int[] {0, 4, QuadtreeSnapshot.HEADER_BYTES - 1, QuadtreeSnapshot.HEADER_BYTES,
+                                     good.length / 2, good.length - 1}) {
+            Files.write(file, Arrays.copyOf(good, length));
+            expectRejected(file, key, "a snapshot cut to " + length + " of " + good.length + " bytes");
+        }
+        Files.write(file, Arrays.copyOf(good, good.length + 1));
+        expectRejected(file, key, "a snapshot with a byte appended");
+    }
+
+    // Changing any header byte, counts and bounds included, is caught
+    private static void checkHeader(byte[] good, Path file, long key) throws IOException {
+        for (int at = 0; at < QuadtreeSnapshot.HEADER_BYTES; at++) {
+            for (int bit : new int[] {0, 7}) {
+                byte[] bad = good.clone();
+                bad[at] ^= (byte) (1 << bit);
+                Files.write(file, bad);
+                expectRejected(file, key, "a snapshot with bit " + bit + " of header byte " + at + " flipped");
+            }
+        }
+    }
+
+    // Changing bytes in the points, nodes and names is caught by the checksum
+    private static void checkBody(byte[] good, Path file, long key) throws IOException {
+        SplittableRandom rand = new SplittableRandom(7);
+        for (int i = 0; i < 200; i++) {
+            int at = rand.nextInt(QuadtreeSnapshot.HEADER_BYTES, good.length);
+            byte[] bad = good.clone();
+            bad[at] ^= (byte) rand.nextInt(1, 256);
+            Files.write(file, bad);
+            expectRejected(file, key, "a snapshot with body byte " + at + " changed");
+        }
+        Files.write(file, good);
+        QuadtreeSnapshot.load(file, key, MAX_AGE);
+    }
+
+    private static void expectRejected(Path file, long key, String what) {
+        try {
+            QuadtreeSnapshot.load(file, key, MAX_AGE);
+        } catch (IOException expected) {
+            return;
+        }
+        throw new AssertionError("loaded " + what);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
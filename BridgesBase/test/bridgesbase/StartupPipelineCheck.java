@@ -0,0 +1,109 @@
+package bridgesbase;
+
+import bridges.connect.Bridges;
+import bridges.data_src_dependent.City;
+import bridges.data_src_dependent.OsmData;
+import bridges.data_src_dependent.OsmVertex;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+// Checks that startup really fetches independent data sets concurrently. Each run downloads
+// from a FakeDataSource with a fixed latency per request, and must both have had more than one
+// request in flight at once and finish in less wall-clock time than the requests' latencies
+// added up, which a one-at-a-time startup cannot. BridgesAppChicago is run end to end, and a
+// pipeline of cities plus OSM regions is run directly. A sequential pipeline is run as well,
+// to show the check can fail. Throws an AssertionError (a non-zero exit) on a violation.
+//
+//   java -cp build/classes:build/test/classes bridgesbase.StartupPipelineCheck
+
+public class StartupPipelineCheck {
+
+    static final Duration LATENCY = Duration.ofMillis(300);
+
+    public static void main(String[] args) throws IOException {
+        checkChicagoApp();
+        checkPipeline(true);
+        checkPipeline(false);
+        System.out.println("StartupPipelineCheck passed");
+    }
+
+    private static void checkChicagoApp() throws IOException {
+        FakeDataSource source = new FakeDataSource(LATENCY, List.of());
+        SplittableRandom rand = new SplittableRandom(34);
+        for (String location : BridgesAppChicago.LOCATIONS) {
+            source.addOsmData(location, region(rand, 2_000));
+        }
+
+        long start = System.nanoTime();
+        new BridgesAppChicago().run(new Bridges(), source);
+        long wall = System.nanoTime() - start;
+
+        check(source.requests() == BridgesAppChicago.LOCATIONS.length,
+                "the app made " + source.requests() + " requests for " + BridgesAppChicago.LOCATIONS.length + " regions");
+        checkConcurrent("BridgesAppChicago", source, wall, true);
+    }
+
+    // Cities and three regions, the shape of FakeDataSource.main
+    private static void checkPipeline(boolean concurrent) throws IOException {
+        SplittableRandom rand = new SplittableRandom(35);
+        List<City> cities = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            cities.add(FakeDataSource.fakeCity("City " + i, rand.nextDouble(24.4, 49.4), rand.nextDouble(-125, -67),
+                    rand.nextInt(1_000, 5_000_000)));
+        }
+        FakeDataSource source = new FakeDataSource(LATENCY, cities);
+        String[] locations = {"Region 0", "Region 1", "Region 2"};
+        for (String location : locations) {
+            source.addOsmData(location, region(rand, 2_000));
+        }
+
+        long start = System.nanoTime();
+        try (StartupPipeline pipeline = new StartupPipeline(concurrent)) {
+            HashMap<String, String> options = new HashMap<>();
+            options.put("min_pop", "500000");
+            CompletableFuture<Integer> cityCount = pipeline.then("count cities",
+                    pipeline.fetch("fetch cities", () -> source.getUSCitiesData(options)), List::size);
+            VertexPool pool = new VertexPool();
+            List<CompletableFuture<Integer>> parsed = new ArrayList<>();
+            for (String location : locations) {
+                CompletableFuture<OsmData> osm = pipeline.fetch("fetch " + location, () -> source.getOsmData(location, "secondary"));
+                parsed.add(pipeline.then("parse " + location, osm, data -> {
+                    for (OsmVertex v : data.getVertices()) pool.intern(v.getLatitude(), v.getLongitude(), location);
+                    return data.getVertices().length;
+                }));
+            }
+            for (CompletableFuture<Integer> f : parsed) StartupPipeline.await(f);
+            check(StartupPipeline.await(cityCount) > 0, "no cities");
+            check(pool.size() > 0, "no road vertices");
+        }
+        long wall = System.nanoTime() - start;
+
+        check(source.requests() == 1 + locations.length, source.requests() + " requests, expected " + (1 + locations.length));
+        checkConcurrent((concurrent ? "pipelined" : "sequential") + " startup", source, wall, concurrent);
+    }
+
+    private static void checkConcurrent(String what, FakeDataSource source, long wallNanos, boolean concurrent) {
+        long latencies = source.requests() * LATENCY.toNanos();
+        boolean overlapped = source.maxConcurrentRequests() > 1 && wallNanos < latencies;
+        check(overlapped == concurrent, String.format("%s: %d requests at most, %.0f ms wall-clock for %.0f ms of latency",
+                what, source.maxConcurrentRequests(), wallNanos / 1e6, latencies / 1e6));
+    }
+
+    private static OsmData region(SplittableRandom rand, int count) {
+        OsmVertex[] vertices = new OsmVertex[count];
+        for (int i = 0; i < count; i++) {
+            vertices[i] = new OsmVertex(rand.nextDouble(41.75, 42.05), rand.nextDouble(-87.9, -87.5));
+        }
+        return FakeDataSource.fakeOsmData(vertices);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}